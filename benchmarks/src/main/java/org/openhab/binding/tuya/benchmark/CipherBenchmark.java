@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openhab.binding.tuya.internal.util.TuyaCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AES encryption and decryption of payloads with TuyaCipher, compared with obtaining and initializing a new Cipher for
+ * every payload as the binding used to do.
+ *
+ * @author Wim Vissers.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherBenchmark {
+
+    // Payload sizes: status update, status query response and a large response.
+    @Param({ "60", "110", "500" })
+    private int payloadSize;
+
+    private byte[] key;
+    private TuyaCipher cipher;
+    private byte[] plain;
+    private byte[] encrypted;
+    private ByteBuffer plainBuffer;
+    private ByteBuffer encryptedBuffer;
+    private ByteBuffer output;
+
+    @Setup
+    public void setUp() {
+        key = Frames.LOCAL_KEY.getBytes(StandardCharsets.UTF_8);
+        cipher = new TuyaCipher(key);
+        plain = new byte[payloadSize];
+        new Random(42).nextBytes(plain);
+        encrypted = cipher.encrypt(plain);
+        plainBuffer = ByteBuffer.wrap(plain);
+        encryptedBuffer = ByteBuffer.wrap(encrypted);
+        output = ByteBuffer.allocate(TuyaCipher.getEncryptedSize(payloadSize));
+    }
+
+    @Benchmark
+    public byte[] encryptUncached() throws GeneralSecurityException {
+        Cipher aes = Cipher.getInstance("AES/ECB/PKCS5PADDING");
+        aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        return aes.doFinal(plain);
+    }
+
+    @Benchmark
+    public byte[] encryptArray() {
+        return cipher.encrypt(plain);
+    }
+
+    @Benchmark
+    public int encryptBuffer() throws ShortBufferException {
+        plainBuffer.clear();
+        output.clear();
+        return cipher.encrypt(plainBuffer, output);
+    }
+
+    @Benchmark
+    public byte[] decryptArray() throws IllegalBlockSizeException {
+        return cipher.decrypt(encrypted);
+    }
+
+    @Benchmark
+    public int decryptBuffer() throws ShortBufferException {
+        encryptedBuffer.clear();
+        output.clear();
+        return cipher.decrypt(encryptedBuffer, output);
+    }
+
+}
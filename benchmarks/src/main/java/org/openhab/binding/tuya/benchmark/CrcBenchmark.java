@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.tuya.internal.util.Crc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the CRC of a frame prefix as calculated by the original implementation (copy the prefix, then walk the
+ * long table) with the in place calculation of Crc on arrays, heap buffers and direct buffers.
+ *
+ * Run with: java -jar target/benchmarks.jar CrcBenchmark -prof gc
+ *
+ * @author Wim Vissers.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrcBenchmark {
+
+    // Frame sizes: heartbeat, typical status and a large status.
+    @Param({ "28", "140", "1024" })
+    private int frameSize;
+
+    private byte[] frame;
+    private ByteBuffer heapFrame;
+    private ByteBuffer directFrame;
+
+    // The CRC covers the frame up to the CRC and suffix.
+    private int length;
+
+    @Setup
+    public void setUp() {
+        frame = new byte[frameSize];
+        new Random(42).nextBytes(frame);
+        heapFrame = ByteBuffer.wrap(frame);
+        directFrame = ByteBuffer.allocateDirect(frameSize);
+        directFrame.put(frame).clear();
+        length = frameSize - 8;
+    }
+
+    @Benchmark
+    public long legacyCopy() {
+        return LegacyCrc.crc32(Arrays.copyOfRange(frame, 0, length));
+    }
+
+    @Benchmark
+    public long array() {
+        return Crc.crc32(frame, 0, length);
+    }
+
+    @Benchmark
+    public long heapBuffer() {
+        return Crc.crc32(heapFrame, 0, length);
+    }
+
+    @Benchmark
+    public long directBuffer() {
+        return Crc.crc32(directFrame, 0, length);
+    }
+
+}
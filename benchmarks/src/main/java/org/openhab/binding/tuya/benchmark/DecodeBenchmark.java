@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.data.Message;
+import org.openhab.binding.tuya.internal.exceptions.ParseException;
+import org.openhab.binding.tuya.internal.util.MessageParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of frames received from a device, from a byte array and in place from the receive buffer.
+ *
+ * @author Wim Vissers.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({ "STATUS", "DP_QUERY", "CONTROL", "HEART_BEAT" })
+    private CommandByte command;
+
+    private MessageParser parser;
+    private byte[] frame;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() throws ParseException {
+        parser = new MessageParser("3.3", Frames.LOCAL_KEY);
+        frame = Frames.deviceFrame(command, 7);
+        buffer = ByteBuffer.wrap(frame);
+        // Fail early on a frame the parser does not accept.
+        parser.decode(frame);
+    }
+
+    @Benchmark
+    public Message decodeArray() throws ParseException {
+        return parser.decode(frame);
+    }
+
+    @Benchmark
+    public Message decodeBuffer() throws ParseException {
+        return parser.decode(buffer);
+    }
+
+}
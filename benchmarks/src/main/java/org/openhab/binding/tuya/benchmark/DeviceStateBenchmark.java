@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.tuya.internal.data.ColorLedState;
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.data.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of received json data to a DeviceState, with Gson from a String and with the streaming parser from the
+ * decrypted bytes, and back to json.
+ *
+ * @author Wim Vissers.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceStateBenchmark {
+
+    private Message status;
+    private Message dpQuery;
+    private Message statusBytes;
+    private Message dpQueryBytes;
+    private ColorLedState state;
+
+    @Setup
+    public void setUp() {
+        status = new Message(Frames.STATUS_JSON);
+        dpQuery = new Message(Frames.DP_QUERY_JSON);
+        statusBytes = bytesMessage(Frames.STATUS_JSON);
+        dpQueryBytes = bytesMessage(Frames.DP_QUERY_JSON);
+        state = dpQuery.toDeviceState(ColorLedState.class);
+    }
+
+    private static Message bytesMessage(String json) {
+        byte[] data = json.getBytes(StandardCharsets.UTF_8);
+        return new Message(null, 1, CommandByte.STATUS.getValue(), data, 0, data.length);
+    }
+
+    @Benchmark
+    public ColorLedState statusToDeviceState() {
+        return status.toDeviceState(ColorLedState.class);
+    }
+
+    @Benchmark
+    public ColorLedState dpQueryToDeviceState() {
+        return dpQuery.toDeviceState(ColorLedState.class);
+    }
+
+    @Benchmark
+    public ColorLedState statusBytesToDeviceState() {
+        return statusBytes.toDeviceState(ColorLedState.class);
+    }
+
+    @Benchmark
+    public ColorLedState dpQueryBytesToDeviceState() {
+        return dpQueryBytes.toDeviceState(ColorLedState.class);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return state.toJson();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.core.library.types.HSBType;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.library.types.PercentType;
+import org.openhab.binding.tuya.internal.data.ColorLedState;
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.data.StatusQuery;
+import org.openhab.binding.tuya.internal.discovery.DeviceDescriptor;
+import org.openhab.binding.tuya.internal.net.QueueItem;
+import org.openhab.binding.tuya.internal.util.MessageParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of the messages sent to a device, through the byte array path and the pooled buffer path used by the
+ * client.
+ *
+ * @author Wim Vissers.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({ "CONTROL", "DP_QUERY", "HEART_BEAT" })
+    private CommandByte command;
+
+    private MessageParser parser;
+    private QueueItem item;
+    private ByteBuffer scratch;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setUp() {
+        parser = new MessageParser("3.3", Frames.LOCAL_KEY);
+        DeviceDescriptor device = Frames.deviceDescriptor();
+        switch (command) {
+            case CONTROL:
+                item = new QueueItem(new ColorLedState(device).withPower(OnOffType.ON)
+                        .withBrightness(new PercentType(80)).withColor(new HSBType("30,100,100")), command);
+                break;
+            case DP_QUERY:
+                item = new QueueItem(new StatusQuery(device), command);
+                break;
+            default:
+                item = new QueueItem(null, command);
+        }
+        scratch = ByteBuffer.allocate(1024);
+        frame = ByteBuffer.allocate(1024);
+    }
+
+    @Benchmark
+    public byte[] encodeArray() {
+        return item.encode(parser, 7);
+    }
+
+    @Benchmark
+    public ByteBuffer encodePooled() {
+        frame.clear();
+        item.encode(parser, 7, scratch, frame);
+        return frame;
+    }
+
+}
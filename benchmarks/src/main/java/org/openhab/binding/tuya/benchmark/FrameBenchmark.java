@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.net.FrameDecoder;
+import org.openhab.binding.tuya.internal.util.BufferUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting a segment with several coalesced frames (status update, status query response and heartbeat response),
+ * by scanning for the suffix and with the FrameDecoder used by the client.
+ *
+ * @author Wim Vissers.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+
+    private byte[] segment;
+    private FrameDecoder decoder;
+    private SegmentChannel channel;
+
+    @Setup
+    public void setUp() {
+        segment = Frames.coalesce(Frames.deviceFrame(CommandByte.STATUS, 0),
+                Frames.deviceFrame(CommandByte.DP_QUERY, 7), Frames.deviceFrame(CommandByte.HEART_BEAT, 8));
+        decoder = new FrameDecoder();
+        channel = new SegmentChannel(segment);
+    }
+
+    @Benchmark
+    public int indexOfSuffix() {
+        return BufferUtils.indexOfUInt32(segment, 0x0000AA55);
+    }
+
+    @Benchmark
+    public int frameDecoder(Blackhole blackhole) throws Exception {
+        channel.rewind();
+        decoder.read(channel);
+        return decoder.decode(blackhole::consume);
+    }
+
+    /**
+     * Channel delivering the same segment on every read.
+     */
+    private static class SegmentChannel implements ReadableByteChannel {
+
+        private final ByteBuffer segment;
+
+        SegmentChannel(byte[] segment) {
+            this.segment = ByteBuffer.wrap(segment);
+        }
+
+        void rewind() {
+            segment.clear();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (!segment.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(dst.remaining(), segment.remaining());
+            ByteBuffer slice = segment.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            segment.position(segment.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
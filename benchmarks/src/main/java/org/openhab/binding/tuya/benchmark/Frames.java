@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.discovery.DeviceDescriptor;
+import org.openhab.binding.tuya.internal.discovery.JsonDiscovery;
+import org.openhab.binding.tuya.internal.util.Crc;
+import org.openhab.binding.tuya.internal.util.TuyaCipher;
+
+import com.google.gson.Gson;
+
+/**
+ * Realistic version 3.3 frames and payloads, as sent by a color led bulb.
+ *
+ * @author Wim Vissers.
+ *
+ */
+final class Frames {
+
+    static final String GW_ID = "70116356840d8e5f1cb3";
+    static final String LOCAL_KEY = "6b2c9e04f1a83d75";
+
+    // Data of an unsolicited status update (single data point).
+    static final String STATUS_JSON = "{\"devId\":\"" + GW_ID + "\",\"dps\":{\"1\":true},\"t\":1566481749}";
+
+    // Data of the response to a status query (all data points).
+    static final String DP_QUERY_JSON = "{\"devId\":\"" + GW_ID
+            + "\",\"dps\":{\"1\":true,\"2\":\"colour\",\"3\":255,\"4\":128,\"5\":\"ff00000000ffff\"}}";
+
+    // The discovery broadcast of the device.
+    static final String DISCOVERY_JSON = "{\"ip\":\"192.168.2.57\",\"gwId\":\"" + GW_ID
+            + "\",\"active\":2,\"ability\":0,\"mode\":0,\"encrypt\":true,\"productKey\":\"keyjup78v54myhan\","
+            + "\"version\":\"3.3\"}";
+
+    private Frames() {
+    }
+
+    /**
+     * Return the descriptor of the device, as created by discovery.
+     *
+     * @return the descriptor.
+     */
+    static DeviceDescriptor deviceDescriptor() {
+        return new DeviceDescriptor(new Gson().fromJson(DISCOVERY_JSON, JsonDiscovery.class))
+                .withLocalKey(LOCAL_KEY);
+    }
+
+    /**
+     * Return the data a device sends with the given command.
+     *
+     * @param command the command.
+     * @return the json data, empty for acknowledgements.
+     */
+    static String deviceJson(CommandByte command) {
+        switch (command) {
+            case STATUS:
+                return STATUS_JSON;
+            case DP_QUERY:
+                return DP_QUERY_JSON;
+            default:
+                // CONTROL and HEART_BEAT are acknowledged without data.
+                return "";
+        }
+    }
+
+    /**
+     * Build a frame as sent by a device: header, return code, the 3.3 version header for status updates, the
+     * encrypted data, CRC and suffix.
+     *
+     * @param command    the command.
+     * @param sequenceNo the sequence number.
+     * @return the frame.
+     */
+    static byte[] deviceFrame(CommandByte command, long sequenceNo) {
+        String json = deviceJson(command);
+        byte[] encrypted = json.isEmpty() ? new byte[0]
+                : new TuyaCipher(LOCAL_KEY.getBytes(StandardCharsets.UTF_8))
+                        .encrypt(json.getBytes(StandardCharsets.UTF_8));
+        int versionHeader = command == CommandByte.STATUS ? 15 : 0;
+        ByteBuffer frame = ByteBuffer.allocate(16 + 4 + versionHeader + encrypted.length + 8);
+        frame.putInt(0x000055AA);
+        frame.putInt((int) sequenceNo);
+        frame.putInt(command.getValue());
+        frame.putInt(frame.capacity() - 16);
+        frame.putInt(0);
+        if (versionHeader > 0) {
+            frame.put("3.3".getBytes(StandardCharsets.US_ASCII));
+            frame.put(new byte[versionHeader - 3]);
+        }
+        frame.put(encrypted);
+        frame.putInt((int) Crc.crc32(frame.array(), 0, frame.position()));
+        frame.putInt(0x0000AA55);
+        return frame.array();
+    }
+
+    /**
+     * Concatenate frames, as they arrive when a device sends several frames in a single TCP segment.
+     *
+     * @param frames the frames.
+     * @return the concatenated frames.
+     */
+    static byte[] coalesce(byte[]... frames) {
+        int length = 0;
+        for (byte[] frame : frames) {
+            length += frame.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (byte[] frame : frames) {
+            buffer.put(frame);
+        }
+        return buffer.array();
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.simulator;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.util.Crc;
+import org.openhab.binding.tuya.internal.util.TuyaCipher;
+
+/**
+ * The device side of the version 3.3 protocol: reading requests and building responses, status updates and discovery
+ * broadcasts.
+ *
+ * @author Wim Vissers.
+ *
+ */
+final class DeviceFrames {
+
+    private static final int PREFIX = 0x000055AA;
+    private static final int SUFFIX = 0x0000AA55;
+    private static final byte[] VERSION_HEADER = { '3', '.', '3', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+    private DeviceFrames() {
+    }
+
+    /**
+     * A request received from the binding.
+     */
+    static class Request {
+
+        final long sequenceNo;
+        final CommandByte command;
+        final String data;
+
+        Request(long sequenceNo, CommandByte command, String data) {
+            this.sequenceNo = sequenceNo;
+            this.command = command;
+            this.data = data;
+        }
+
+    }
+
+    /**
+     * Read a request from the stream, blocking until it is complete.
+     *
+     * @param in     the stream.
+     * @param cipher the cipher with the local key of the device.
+     * @return the request.
+     * @throws IOException when the stream ends or the frame is invalid.
+     */
+    static Request read(DataInputStream in, TuyaCipher cipher) throws IOException {
+        int prefix = in.readInt();
+        if (prefix != PREFIX) {
+            throw new IOException(String.format("Prefix does not match: %x", prefix));
+        }
+        long sequenceNo = in.readInt() & 0xFFFFFFFFL;
+        CommandByte command = CommandByte.valueOf(in.readInt());
+        int length = in.readInt();
+        if (length < 8 || length > 16384) {
+            throw new IOException("Invalid length: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+
+        // Strip crc and suffix, and the version header of commands other than DP_QUERY.
+        int start = body.length >= 23 && body[0] == '3' && body[1] == '.' && body[2] == '3' ? VERSION_HEADER.length
+                : 0;
+        byte[] payload = Arrays.copyOfRange(body, start, body.length - 8);
+        String data = "";
+        if (payload.length > 0) {
+            try {
+                byte[] plain = cipher.decrypt(payload);
+                data = plain == null ? "" : new String(plain, StandardCharsets.UTF_8);
+            } catch (IllegalBlockSizeException e) {
+                throw new IOException("Payload is not encrypted with the local key.", e);
+            }
+        }
+        return new Request(sequenceNo, command, data);
+    }
+
+    /**
+     * Build a frame as sent by a device: header, return code, the version header for status updates, the encrypted
+     * data, crc and suffix.
+     *
+     * @param cipher     the cipher with the local key of the device.
+     * @param command    the command.
+     * @param sequenceNo the sequence number of the request, 0 for unsolicited updates.
+     * @param json       the data, empty for acknowledgements.
+     * @return the frame.
+     */
+    static byte[] response(TuyaCipher cipher, CommandByte command, long sequenceNo, String json) {
+        byte[] encrypted = json.isEmpty() ? new byte[0] : cipher.encrypt(json.getBytes(StandardCharsets.UTF_8));
+        byte[] header = command == CommandByte.STATUS ? VERSION_HEADER : new byte[0];
+        ByteBuffer frame = ByteBuffer.allocate(16 + 4 + header.length + encrypted.length + 8);
+        frame.putInt(PREFIX);
+        frame.putInt((int) sequenceNo);
+        frame.putInt(command.getValue());
+        frame.putInt(frame.capacity() - 16);
+        // Return code: success.
+        frame.putInt(0);
+        frame.put(header);
+        frame.put(encrypted);
+        frame.putInt((int) Crc.crc32(frame.array(), 0, frame.position()));
+        frame.putInt(SUFFIX);
+        return frame.array();
+    }
+
+    /**
+     * Build a discovery broadcast, encrypted with the UDP key.
+     *
+     * @param json the discovery data.
+     * @return the datagram.
+     */
+    static byte[] broadcast(String json) {
+        return response(TuyaCipher.getUdpCipher(), CommandByte.UDP_NEW, 0, json);
+    }
+
+}
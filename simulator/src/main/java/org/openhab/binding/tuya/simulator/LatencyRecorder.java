@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.simulator;
+
+import java.util.Arrays;
+
+/**
+ * Records command latencies and reports percentiles.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count;
+    private long timeouts;
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos the latency in nanoseconds.
+     */
+    synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    /**
+     * Record a command that has not been answered.
+     */
+    synchronized void timeout() {
+        timeouts++;
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Return a report with the percentiles of the latencies recorded so far.
+     *
+     * @return the report.
+     */
+    synchronized String report() {
+        if (count == 0) {
+            return String.format("commands: 0, timeouts: %d", timeouts);
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return String.format(
+                "commands: %d, timeouts: %d, latency ms p50: %.1f, p90: %.1f, p99: %.1f, p99.9: %.1f, max: %.1f", count,
+                timeouts, millis(sorted, 0.5), millis(sorted, 0.9), millis(sorted, 0.99), millis(sorted, 0.999),
+                sorted[count - 1] / 1e6);
+    }
+
+    private static double millis(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+}
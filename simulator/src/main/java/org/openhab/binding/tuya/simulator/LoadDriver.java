@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.data.PowerPlugState;
+import org.openhab.binding.tuya.internal.discovery.DeviceDescriptor;
+import org.openhab.binding.tuya.internal.discovery.JsonDiscovery;
+import org.openhab.binding.tuya.internal.exceptions.UnsupportedVersionException;
+import org.openhab.binding.tuya.internal.net.TuyaClient;
+import org.openhab.binding.tuya.internal.net.TuyaClientService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+/**
+ * Drives the simulated devices with the TuyaClient of the binding. Every client sends CONTROL commands at the
+ * configured rate, one at a time, and the time until the device acknowledges the command is recorded. Commands are
+ * sent with sendAsync, so the response is matched to the command by the client and the deadline is enforced by the
+ * timer of the binding.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class LoadDriver {
+
+    // A command not acknowledged within this time is counted as timeout.
+    private static final long COMMAND_TIMEOUT_MILLIS = 5000;
+
+    private final SimulatorConfig config;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyRecorder recorder;
+    private final List<Driven> driven = new ArrayList<>();
+
+    private final Logger logger = LoggerFactory.getLogger(LoadDriver.class);
+
+    LoadDriver(SimulatorConfig config, ScheduledExecutorService scheduler, LatencyRecorder recorder) {
+        this.config = config;
+        this.scheduler = scheduler;
+        this.recorder = recorder;
+    }
+
+    /**
+     * Create and start a client for every device.
+     *
+     * @param devices the devices.
+     * @throws UnsupportedVersionException (should not happen).
+     */
+    void start(List<SimulatedDevice> devices) throws UnsupportedVersionException {
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.commandRate);
+        for (SimulatedDevice device : devices) {
+            Driven d = new Driven(device, periodNanos);
+            driven.add(d);
+            d.start();
+        }
+    }
+
+    void stop() {
+        driven.forEach(d -> d.client.stop());
+        TuyaClientService.getInstance().stop();
+    }
+
+    /**
+     * A client with its outstanding command.
+     */
+    private class Driven {
+
+        private final DeviceDescriptor descriptor;
+        private final TuyaClient client;
+        private final long periodNanos;
+
+        // Time the outstanding command was sent, 0 when none is outstanding. Guarded by the lock of this object.
+        private long sentNanos;
+        private boolean power;
+
+        Driven(SimulatedDevice device, long periodNanos) throws UnsupportedVersionException {
+            this.periodNanos = periodNanos;
+            descriptor = new DeviceDescriptor(new Gson().fromJson(device.discoveryJson(), JsonDiscovery.class))
+                    .withLocalKey(device.getLocalKey());
+            client = new TuyaClient(device.getGwId(), device.getAddress().getHostAddress(), config.port, "3.3",
+                    device.getLocalKey());
+            client.on(TuyaClient.Event.CONNECTED, (event, message) -> {
+                scheduleNext(0);
+                return true;
+            });
+        }
+
+        void start() {
+            client.start(scheduler);
+        }
+
+        /**
+         * Called when the command sent at the given time is answered or failed.
+         */
+        private synchronized void completed(long sent, Throwable e) {
+            if (sentNanos != sent) {
+                return;
+            }
+            sentNanos = 0;
+            if (e == null) {
+                recorder.record(System.nanoTime() - sent);
+                scheduleNext(periodNanos);
+            } else if (e instanceof TimeoutException) {
+                recorder.timeout();
+                scheduleNext(0);
+            } else {
+                logger.debug("Sending to {} failed: {}", descriptor.getGwId(), e.getMessage());
+                scheduleNext(periodNanos);
+            }
+        }
+
+        private void scheduleNext(long delayNanos) {
+            scheduler.schedule(this::sendCommand, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private synchronized void sendCommand() {
+            if (sentNanos != 0) {
+                return;
+            }
+            power = !power;
+            long sent = System.nanoTime();
+            sentNanos = sent;
+            client.sendAsync(new PowerPlugState(descriptor).withPower(power ? OnOffType.ON : OnOffType.OFF),
+                    CommandByte.CONTROL, COMMAND_TIMEOUT_MILLIS).whenComplete((message, e) -> completed(sent, e));
+        }
+
+    }
+
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.simulator;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.util.TuyaCipher;
+import org.openhab.binding.tuya.simulator.DeviceFrames.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A simulated color led bulb, listening on its own loopback address. It answers CONTROL, DP_QUERY and HEART_BEAT
+ * requests after the configured latency, sends unsolicited status updates, and optionally resets connections or
+ * splits frames.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class SimulatedDevice implements Closeable {
+
+    private final SimulatorConfig config;
+    private final String gwId;
+    private final String localKey;
+    private final InetAddress address;
+    private final TuyaCipher cipher;
+
+    // The data points, guarded by the lock of the object.
+    private final JsonObject dps;
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocket server;
+    private Thread acceptor;
+
+    // Statistics.
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+
+    private final Logger logger = LoggerFactory.getLogger(SimulatedDevice.class);
+
+    SimulatedDevice(int index, SimulatorConfig config) {
+        this.config = config;
+        gwId = String.format("sim%017d", index);
+        localKey = String.format("%016x", 0x5A5A5A5A5A5AL + index * 7919L);
+        int n = index + 1;
+        try {
+            address = InetAddress.getByAddress(new byte[] { 127, (byte) (n >> 16), (byte) (n >> 8), (byte) n });
+        } catch (IOException e) {
+            // Cannot happen for a 4 byte address.
+            throw new IllegalStateException(e);
+        }
+        cipher = new TuyaCipher(localKey.getBytes(StandardCharsets.UTF_8));
+        dps = new JsonObject();
+        dps.addProperty("1", false);
+        dps.addProperty("2", "white");
+        dps.addProperty("3", 255);
+        dps.addProperty("4", 128);
+        dps.addProperty("5", "ff0000000064ff");
+    }
+
+    String getGwId() {
+        return gwId;
+    }
+
+    String getLocalKey() {
+        return localKey;
+    }
+
+    InetAddress getAddress() {
+        return address;
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getResets() {
+        return resets.get();
+    }
+
+    /**
+     * Start listening for connections.
+     *
+     * @throws IOException when the address is not available.
+     */
+    void start() throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(address, config.port));
+        acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    socket.setTcpNoDelay(true);
+                    Connection connection = new Connection(socket);
+                    connections.add(connection);
+                    connection.start();
+                } catch (IOException e) {
+                    if (!server.isClosed()) {
+                        logger.warn("Device {} cannot accept connection: {}", gwId, e.getMessage());
+                    }
+                }
+            }
+        }, "sim-accept-" + gwId);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException ignored) {
+        }
+        connections.forEach(Connection::close);
+    }
+
+    /**
+     * Send an unsolicited status update to all connections, toggling the power.
+     */
+    void push() {
+        JsonObject changed = new JsonObject();
+        synchronized (dps) {
+            boolean power = !dps.get("1").getAsBoolean();
+            dps.addProperty("1", power);
+            changed.addProperty("1", power);
+        }
+        String json = statusJson(changed);
+        connections.forEach(connection -> connection.send(CommandByte.STATUS, 0, json, 0));
+    }
+
+    /**
+     * Return the discovery json of this device.
+     *
+     * @return the json.
+     */
+    String discoveryJson() {
+        return "{\"ip\":\"" + address.getHostAddress() + "\",\"gwId\":\"" + gwId
+                + "\",\"active\":2,\"ability\":0,\"mode\":0,\"encrypt\":true,\"productKey\":\"simulatorproduct\","
+                + "\"version\":\"3.3\"}";
+    }
+
+    private String statusJson(JsonObject changed) {
+        JsonObject status = new JsonObject();
+        status.addProperty("devId", gwId);
+        status.add("dps", changed);
+        status.addProperty("t", System.currentTimeMillis() / 1000);
+        return status.toString();
+    }
+
+    private String dpQueryJson() {
+        synchronized (dps) {
+            return "{\"devId\":\"" + gwId + "\",\"dps\":" + dps + "}";
+        }
+    }
+
+    /**
+     * Apply the data points of a CONTROL request.
+     *
+     * @param data the json of the request.
+     * @return the changed data points.
+     */
+    private JsonObject control(String data) {
+        JsonObject changed = new JsonObject();
+        try {
+            JsonElement requested = new JsonParser().parse(data).getAsJsonObject().get("dps");
+            if (requested != null && requested.isJsonObject()) {
+                synchronized (dps) {
+                    for (Map.Entry<String, JsonElement> dp : requested.getAsJsonObject().entrySet()) {
+                        if (!dp.getValue().isJsonNull()) {
+                            dps.add(dp.getKey(), dp.getValue());
+                            changed.add(dp.getKey(), dp.getValue());
+                        }
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Device {} received invalid CONTROL data: {}", gwId, data);
+        }
+        return changed;
+    }
+
+    /**
+     * A connection from the binding, with a reader thread and a writer executing the delayed responses in order.
+     */
+    private class Connection {
+
+        private final Socket socket;
+        private final ScheduledExecutorService writer;
+        private final Thread reader;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+            writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "sim-write-" + gwId);
+                thread.setDaemon(true);
+                return thread;
+            });
+            reader = new Thread(this::read, "sim-read-" + gwId);
+            reader.setDaemon(true);
+        }
+
+        void start() {
+            reader.start();
+        }
+
+        private void read() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (!socket.isClosed()) {
+                    handle(DeviceFrames.read(in, cipher));
+                }
+            } catch (IOException e) {
+                logger.debug("Device {} connection closed: {}", gwId, e.getMessage());
+            } finally {
+                close();
+            }
+        }
+
+        private void handle(Request request) throws IOException {
+            requests.incrementAndGet();
+            if (ThreadLocalRandom.current().nextDouble() < config.resetProbability) {
+                resets.incrementAndGet();
+                // Abort with a RST instead of a FIN.
+                socket.setSoLinger(true, 0);
+                close();
+                return;
+            }
+            long delay = config.latencyMillis
+                    + (config.jitterMillis > 0 ? ThreadLocalRandom.current().nextInt(config.jitterMillis + 1) : 0);
+            switch (request.command) {
+                case CONTROL:
+                    JsonObject changed = control(request.data);
+                    send(CommandByte.CONTROL, request.sequenceNo, "", delay);
+                    if (!changed.entrySet().isEmpty()) {
+                        send(CommandByte.STATUS, 0, statusJson(changed), delay);
+                    }
+                    break;
+                case DP_QUERY:
+                    send(CommandByte.DP_QUERY, request.sequenceNo, dpQueryJson(), delay);
+                    break;
+                default:
+                    // HEART_BEAT and others are acknowledged without data.
+                    send(request.command, request.sequenceNo, "", delay);
+            }
+        }
+
+        /**
+         * Send a frame after the given delay, optionally in two parts.
+         */
+        void send(CommandByte command, long sequenceNo, String json, long delayMillis) {
+            byte[] frame = DeviceFrames.response(cipher, command, sequenceNo, json);
+            try {
+                writer.schedule(() -> write(frame), delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // Writer shut down, the connection is closed.
+            }
+        }
+
+        private void write(byte[] frame) {
+            try {
+                OutputStream out = socket.getOutputStream();
+                if (ThreadLocalRandom.current().nextDouble() < config.splitProbability) {
+                    int split = 1 + ThreadLocalRandom.current().nextInt(frame.length - 1);
+                    out.write(frame, 0, split);
+                    out.flush();
+                    Thread.sleep(2);
+                    out.write(frame, split, frame.length - split);
+                } else {
+                    out.write(frame);
+                }
+                out.flush();
+            } catch (IOException e) {
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            writer.shutdownNow();
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+    }
+
+}
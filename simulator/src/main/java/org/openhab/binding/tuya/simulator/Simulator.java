@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.simulator;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.tuya.internal.exceptions.UnsupportedVersionException;
+
+/**
+ * Simulates a number of Tuya version 3.3 devices on loopback addresses (127.0.0.1, 127.0.0.2, ...), to test the
+ * binding without hardware. The devices answer on the TCP port 6668 and send discovery broadcasts. Unless disabled,
+ * a load driver sends commands to the devices with the TuyaClient of the binding, and reports the command latency
+ * percentiles every 10 seconds and at the end.
+ *
+ * Binding to loopback addresses other than 127.0.0.1 works out of the box on Linux. On other systems, add aliases
+ * to the loopback interface first.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class Simulator {
+
+    private static final int REPORT_SECONDS = 10;
+
+    public static void main(String[] args) throws IOException, InterruptedException, UnsupportedVersionException {
+        SimulatorConfig config;
+        try {
+            config = SimulatorConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "sim-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<SimulatedDevice> devices = new ArrayList<>();
+        for (int i = 0; i < config.devices; i++) {
+            SimulatedDevice device = new SimulatedDevice(i, config);
+            device.start();
+            devices.add(device);
+            if (config.pushRate > 0) {
+                long period = (long) (TimeUnit.SECONDS.toMicros(1) / config.pushRate);
+                scheduler.scheduleAtFixedRate(device::push, ThreadLocalRandom.current().nextLong(period), period,
+                        TimeUnit.MICROSECONDS);
+            }
+        }
+        System.out.printf("Started %d devices on %s to %s, port %d.%n", devices.size(),
+                devices.get(0).getAddress().getHostAddress(),
+                devices.get(devices.size() - 1).getAddress().getHostAddress(), config.port);
+
+        DatagramSocket broadcastSocket = null;
+        if (config.broadcastSeconds > 0) {
+            DatagramSocket socket = new DatagramSocket();
+            socket.setBroadcast(true);
+            InetSocketAddress target = new InetSocketAddress(config.broadcastAddress, config.broadcastPort);
+            scheduler.scheduleAtFixedRate(() -> broadcast(socket, target, devices), 0, config.broadcastSeconds,
+                    TimeUnit.SECONDS);
+            broadcastSocket = socket;
+        }
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        LoadDriver driver = null;
+        if (config.commandRate > 0) {
+            driver = new LoadDriver(config, scheduler, recorder);
+            driver.start(devices);
+            scheduler.scheduleAtFixedRate(() -> System.out.println(recorder.report()), REPORT_SECONDS,
+                    REPORT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(done::countDown));
+        if (config.durationSeconds > 0) {
+            done.await(config.durationSeconds, TimeUnit.SECONDS);
+        } else {
+            done.await();
+        }
+
+        if (driver != null) {
+            driver.stop();
+            System.out.println("Final: " + recorder.report());
+        }
+        long requests = devices.stream().mapToLong(SimulatedDevice::getRequests).sum();
+        long resets = devices.stream().mapToLong(SimulatedDevice::getResets).sum();
+        System.out.printf("Devices received %d requests, %d connections reset.%n", requests, resets);
+        devices.forEach(SimulatedDevice::close);
+        if (broadcastSocket != null) {
+            broadcastSocket.close();
+        }
+        scheduler.shutdownNow();
+    }
+
+    private static void broadcast(DatagramSocket socket, InetSocketAddress target, List<SimulatedDevice> devices) {
+        for (SimulatedDevice device : devices) {
+            byte[] datagram = DeviceFrames.broadcast(device.discoveryJson());
+            try {
+                socket.send(new DatagramPacket(datagram, datagram.length, target));
+            } catch (IOException e) {
+                System.err.println("Broadcast failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+}
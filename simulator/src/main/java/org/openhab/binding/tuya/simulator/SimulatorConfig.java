@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.simulator;
+
+/**
+ * The options of the simulator, parsed from the command line.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class SimulatorConfig {
+
+    // Number of simulated devices.
+    int devices = 10;
+
+    // TCP port of the devices.
+    int port = 6668;
+
+    // Delay before a device answers a request.
+    int latencyMillis = 20;
+
+    // Random extra delay, up to this value.
+    int jitterMillis = 10;
+
+    // Unsolicited status updates per device per second.
+    double pushRate = 0.1;
+
+    // Probability that a device resets the connection instead of answering.
+    double resetProbability = 0;
+
+    // Probability that a frame is written in two parts.
+    double splitProbability = 0;
+
+    // Seconds between discovery broadcasts, 0 to disable.
+    int broadcastSeconds = 5;
+
+    // Destination of the discovery broadcasts.
+    String broadcastAddress = "127.0.0.1";
+    int broadcastPort = 6667;
+
+    // Commands per device per second sent by the load driver, 0 to run the devices only.
+    double commandRate = 1;
+
+    // Run time in seconds, 0 to run until stopped.
+    int durationSeconds = 60;
+
+    /**
+     * Parse the command line options.
+     *
+     * @param args the arguments.
+     * @return the configuration.
+     * @throws IllegalArgumentException for unknown options or invalid values.
+     */
+    static SimulatorConfig parse(String[] args) {
+        SimulatorConfig config = new SimulatorConfig();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--help")) {
+                throw new IllegalArgumentException(usage());
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--devices":
+                        config.devices = Integer.parseInt(value);
+                        break;
+                    case "--port":
+                        config.port = Integer.parseInt(value);
+                        break;
+                    case "--latency":
+                        config.latencyMillis = Integer.parseInt(value);
+                        break;
+                    case "--jitter":
+                        config.jitterMillis = Integer.parseInt(value);
+                        break;
+                    case "--push-rate":
+                        config.pushRate = Double.parseDouble(value);
+                        break;
+                    case "--reset":
+                        config.resetProbability = Double.parseDouble(value);
+                        break;
+                    case "--split":
+                        config.splitProbability = Double.parseDouble(value);
+                        break;
+                    case "--broadcast":
+                        config.broadcastSeconds = Integer.parseInt(value);
+                        break;
+                    case "--broadcast-address":
+                        config.broadcastAddress = value;
+                        break;
+                    case "--broadcast-port":
+                        config.broadcastPort = Integer.parseInt(value);
+                        break;
+                    case "--command-rate":
+                        config.commandRate = Double.parseDouble(value);
+                        break;
+                    case "--duration":
+                        config.durationSeconds = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option + "\n" + usage());
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+            }
+        }
+        return config;
+    }
+
+    static String usage() {
+        return "Usage: java -jar simulator.jar [options]\n" //
+                + "  --devices n            number of devices (10)\n" //
+                + "  --port n               TCP port of the devices (6668)\n" //
+                + "  --latency ms           response latency (20)\n" //
+                + "  --jitter ms            random extra latency (10)\n" //
+                + "  --push-rate r          unsolicited status updates per device per second (0.1)\n" //
+                + "  --reset p              probability of a connection reset per request (0)\n" //
+                + "  --split p              probability of a frame written in two parts (0)\n" //
+                + "  --broadcast s          seconds between discovery broadcasts, 0 disables (5)\n" //
+                + "  --broadcast-address a  destination of the broadcasts (127.0.0.1)\n" //
+                + "  --broadcast-port n     port of the broadcasts (6667)\n" //
+                + "  --command-rate r       commands per device per second, 0 disables the load driver (1)\n" //
+                + "  --duration s           run time, 0 runs until stopped (60)";
+    }
+
+}
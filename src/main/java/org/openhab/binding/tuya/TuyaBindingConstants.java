@@ -40,6 +40,18 @@ public class TuyaBindingConstants {
     public final static String CHANNEL_DURATION = "duration";
     public final static String CHANNEL_CURTAIN = "curtain";
 
+    // List of binding configuration parameters.
+    public static final String CONFIG_SELECTOR_THREADS = "selectorThreads";
+    public static final String CONFIG_STATE_REFRESH = "stateRefresh";
+    public static final String CONFIG_COMMAND_WINDOW = "commandWindow";
+    public static final String CONFIG_OVERFLOW_POLICY = "overflowPolicy";
+    public static final String CONFIG_HEARTBEAT_IDLE = "heartbeatIdle";
+    public static final String CONFIG_MAX_CONNECTS = "maxConnects";
+    public static final String CONFIG_SCAN_RANGE = "scanRange";
+
+    // Default window in milliseconds for merging commands.
+    public static final int DEFAULT_COMMAND_WINDOW = 100;
+
     // Default API version (currently only 3.3 supported).
     public static final String DEFAULT_VERSION = "3.3";
 
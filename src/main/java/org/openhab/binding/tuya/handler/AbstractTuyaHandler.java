@@ -12,10 +12,8 @@ import static org.openhab.binding.tuya.TuyaBindingConstants.*;
 import static org.openhab.binding.tuya.internal.data.CommandByte.*;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 import org.eclipse.smarthome.config.core.Configuration;
 import org.eclipse.smarthome.core.thing.ChannelUID;
@@ -26,7 +24,7 @@ import org.eclipse.smarthome.core.thing.binding.BaseThingHandler;
 import org.eclipse.smarthome.core.types.Command;
 import org.eclipse.smarthome.core.types.RefreshType;
 import org.openhab.binding.tuya.internal.CommandDispatcher;
-import org.openhab.binding.tuya.internal.annotations.Property;
+import org.openhab.binding.tuya.internal.StateCache;
 import org.openhab.binding.tuya.internal.data.CommandByte;
 import org.openhab.binding.tuya.internal.data.DeviceState;
 import org.openhab.binding.tuya.internal.data.Message;
@@ -37,9 +35,14 @@ import org.openhab.binding.tuya.internal.discovery.JsonDiscovery;
 import org.openhab.binding.tuya.internal.exceptions.HandlerInitializationException;
 import org.openhab.binding.tuya.internal.exceptions.ParseException;
 import org.openhab.binding.tuya.internal.exceptions.UnsupportedVersionException;
+import org.openhab.binding.tuya.internal.net.OverflowPolicy;
 import org.openhab.binding.tuya.internal.net.TcpConfig;
 import org.openhab.binding.tuya.internal.net.TuyaClient;
 import org.openhab.binding.tuya.internal.net.TuyaClient.Event;
+import org.openhab.binding.tuya.internal.util.AccessorTable;
+import org.openhab.binding.tuya.internal.util.AccessorTable.Accessor;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,11 +63,88 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
     protected DeviceDescriptor deviceDescriptor;
     protected TuyaClient tuyaClient;
     protected final CommandDispatcher commandDispatcher;
-    private ScheduledFuture<?> watchdog;
+    private Timeout watchdog;
+    // The status query scheduled after connecting, null when none is pending.
+    private Timeout statusQuery;
+
+    // The callback registered with the device repository for the device id, null when not registered.
+    private BiFunction<String, DeviceDescriptor, Boolean> deviceCallback;
+
+    // The states last published, to publish changes only.
+    private final StateCache stateCache;
+
+    // What the client does with commands when its send queue is full.
+    private OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+
+    // Seconds without frames from the device before the client sends heartbeats.
+    private int heartbeatIdleSeconds = HEARTBEAT_SECONDS;
 
     public AbstractTuyaHandler(Thing thing) {
         super(thing);
-        this.commandDispatcher = new CommandDispatcher(thing.getUID());
+        this.commandDispatcher = new CommandDispatcher(thing.getUID(), scheduler);
+        this.stateCache = new StateCache();
+    }
+
+    /**
+     * Set the interval after which unchanged channel states are published again.
+     *
+     * @param seconds the interval in seconds, 0 to publish changes only.
+     */
+    public void setStateRefreshSeconds(int seconds) {
+        stateCache.setRefreshSeconds(seconds);
+    }
+
+    /**
+     * Set the window in which commands following each other quickly are merged into a single message.
+     *
+     * @param millis the window in milliseconds, 0 to send every command immediately.
+     */
+    public void setCommandWindowMillis(int millis) {
+        commandDispatcher.setCommandWindowMillis(millis);
+    }
+
+    /**
+     * Set what to do with commands when the send queue of the device is full.
+     *
+     * @param overflowPolicy the policy.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        TuyaClient client = tuyaClient;
+        if (client != null) {
+            client.setOverflowPolicy(overflowPolicy);
+        }
+    }
+
+    /**
+     * Set the period without any message from the device after which heartbeats are sent.
+     *
+     * @param seconds the period in seconds.
+     */
+    public void setHeartbeatIdleSeconds(int seconds) {
+        this.heartbeatIdleSeconds = seconds;
+        TuyaClient client = tuyaClient;
+        if (client != null) {
+            client.setHeartbeatIdleSeconds(seconds);
+        }
+    }
+
+    /**
+     * Return the number of channel states published.
+     *
+     * @return the number of states.
+     */
+    public long getPublishedStateCount() {
+        return stateCache.getPublished();
+    }
+
+    /**
+     * Return the number of channel states not published because they did not change.
+     *
+     * @return the number of states.
+     */
+    public long getSuppressedStateCount() {
+        return stateCache.getSuppressed();
     }
 
     /**
@@ -73,12 +153,14 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
      * @param dev the device data.
      */
     protected void updateStates(Message message, Class<? extends DeviceState> clazz) {
-        if (message != null && message.getData() != null && message.getData().startsWith("{")) {
+        if (message != null && message.hasData()) {
             try {
                 DeviceState dev = message.toDeviceState(clazz);
                 if (dev != null) {
                     dev.forChangedProperties((channel, state) -> {
-                        updateState(new ChannelUID(thing.getUID(), channel), state);
+                        if (stateCache.shouldPublish(channel, state)) {
+                            updateState(new ChannelUID(thing.getUID(), channel), state);
+                        }
                     });
                 }
             } catch (JsonSyntaxException e) {
@@ -94,7 +176,21 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
      * @return
      */
     public boolean isOnline() {
-        return tuyaClient.isOnline();
+        TuyaClient client = tuyaClient;
+        return client != null && client.isOnline();
+    }
+
+    /**
+     * Connect without waiting for the next attempt, e.g. when the device was seen on the network. Without a client,
+     * the thing is initialized again.
+     */
+    public void reconnect() {
+        TuyaClient client = tuyaClient;
+        if (client == null) {
+            initialize();
+        } else {
+            client.reconnectNow();
+        }
     }
 
     /**
@@ -140,15 +236,22 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
             tuyaClient = null;
         }
         if (watchdog != null) {
-            watchdog.cancel(true);
+            watchdog.cancel();
             watchdog = null;
         }
-        if (deviceDescriptor != null && deviceDescriptor.getGwId() != null) {
-            DeviceRepository.getInstance().removeHandler(deviceDescriptor.getGwId());
+        if (statusQuery != null) {
+            statusQuery.cancel();
+            statusQuery = null;
+        }
+        if (deviceCallback != null) {
+            DeviceRepository.getInstance().removeHandler(id, deviceCallback);
+            deviceCallback = null;
         }
         if (commandDispatcher != null) {
+            commandDispatcher.cancelPendingCommands();
             commandDispatcher.removeAllHandlers();
         }
+        stateCache.invalidateAll();
         deviceDescriptor = null;
     }
 
@@ -166,18 +269,14 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
      * overridden in subclasses to add more specific device properties.
      */
     protected void updateProperties(boolean clear) {
-        for (Method method : DeviceDescriptor.class.getDeclaredMethods()) {
-            if (method.isAnnotationPresent(Property.class) && method.getParameterCount() == 0) {
-                Property prop = method.getAnnotation(Property.class);
-                thing.setProperty(prop.value(), "");
-                if (!clear) {
-                    Object obj;
-                    try {
-                        obj = method.invoke(deviceDescriptor, (Object[]) null);
-                        thing.setProperty(prop.value(), obj == null ? prop.nullValue() : obj.toString());
-                    } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                        logger.error("Property value could not be retrieved", e);
-                    }
+        for (Accessor accessor : AccessorTable.properties(DeviceDescriptor.class)) {
+            thing.setProperty(accessor.getName(), "");
+            if (!clear) {
+                try {
+                    Object obj = accessor.get(deviceDescriptor);
+                    thing.setProperty(accessor.getName(), obj == null ? accessor.getNullValue() : obj.toString());
+                } catch (RuntimeException e) {
+                    logger.error("Property value could not be retrieved", e);
                 }
             }
         }
@@ -200,8 +299,14 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
                     updateProperties(false);
                     deviceDescriptor.setHandler(this);
                     thing.getConfiguration().put("ip", device.getIp());
-                    tuyaClient = new TuyaClient(device.getIp(), DEFAULT_SERVER_PORT, device.getVersion(),
-                            device.getLocalKey());
+                    if (tuyaClient != null) {
+                        // The client of the old address would keep trying to connect.
+                        tuyaClient.stop();
+                    }
+                    tuyaClient = new TuyaClient(device.getGwId(), device.getIp(), DEFAULT_SERVER_PORT,
+                            device.getVersion(), device.getLocalKey());
+                    tuyaClient.setOverflowPolicy(overflowPolicy);
+                    tuyaClient.setHeartbeatIdleSeconds(heartbeatIdleSeconds);
 
                     // Handle error events
                     tuyaClient.on(Event.CONNECTION_ERROR, (ev, msg) -> {
@@ -213,14 +318,15 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
                     // Handle connected event.
                     tuyaClient.on(Event.CONNECTED, (ev, msg) -> {
                         updateStatus(ThingStatus.ONLINE);
+                        // Publish all states again after a reconnect.
+                        stateCache.invalidateAll();
                         updateProperties(false);
                         // Ask status after some delay to let the items be created first.
-                        scheduler.schedule(new Runnable() {
-                            @Override
-                            public void run() {
-                                sendStatusQuery();
-                            }
-                        }, STATUS_REQUEST_DELAY_SECONDS, TimeUnit.SECONDS);
+                        if (statusQuery != null) {
+                            statusQuery.cancel();
+                        }
+                        statusQuery = HashedWheelTimer.getInstance().schedule(this::sendStatusQuery,
+                                STATUS_REQUEST_DELAY_SECONDS, TimeUnit.SECONDS, scheduler);
                         return true;
                     });
 
@@ -233,13 +339,8 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
                     });
 
                     // Delay start of client to avoid blocking initialization too long.
-                    scheduler.schedule(new Runnable() {
-                        @Override
-                        public void run() {
-                            tuyaClient.start(scheduler);
-                        }
-
-                    }, 100, TimeUnit.MILLISECONDS);
+                    HashedWheelTimer.getInstance().schedule(() -> tuyaClient.start(scheduler), 100,
+                            TimeUnit.MILLISECONDS, scheduler);
                 }
             }
         }
@@ -254,6 +355,9 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
         if (deviceDescriptor == null) {
             logger.info("Command {} for channel {} not handled because deviceDescriptor is null.", command, channelUID);
         } else {
+            // The item state may no longer match the state last published, e.g. after autoupdate or when an item has
+            // been linked. Publish the next reported state whatever its value.
+            stateCache.invalidate(channelUID.getId());
             if (command instanceof RefreshType) {
                 sendStatusQuery();
             } else if (!commandDispatcher.dispatchCommand(tuyaClient, channelUID, command, CONTROL)) {
@@ -294,37 +398,43 @@ public abstract class AbstractTuyaHandler extends BaseThingHandler implements Tc
             }
         }
 
-        // Initialize auto-discovery of the ip-address.
-        try {
-            DeviceRepository.getInstance().on(id, (ev, device) -> {
-                try {
-                    deviceFound(device.withLocalKey(localKey));
-                } catch (UnsupportedVersionException e) {
-                    throw new HandlerInitializationException(e.getMessage());
-                }
-                return true;
-            });
-        } catch (Exception e) {
+        // Initialize auto-discovery of the ip-address. Only a single thing may handle a device.
+        BiFunction<String, DeviceDescriptor, Boolean> callback = (ev, device) -> {
+            try {
+                deviceFound(device.withLocalKey(localKey));
+            } catch (UnsupportedVersionException e) {
+                throw new HandlerInitializationException(e.getMessage());
+            }
+            return true;
+        };
+        // Set first, the devices known already are passed to the callback while it is registered.
+        deviceCallback = callback;
+        if (!DeviceRepository.getInstance().onIfAbsent(id, callback)) {
             throw new HandlerInitializationException("Device ID already assigned to a Tuya thing.");
         }
 
         // Init dispatcher.
         initCommandDispatcher();
 
-        // Start the watchdog to reinitialize when offline.
+        // Start the watchdog to reinitialize when there is no client.
         startWatchdog();
     }
 
     private void startWatchdog() {
         if (watchdog == null) {
-            watchdog = scheduler.scheduleAtFixedRate(new Runnable() {
-                @Override
-                public void run() {
-                    if (getThing().getStatus() != ThingStatus.ONLINE) {
-                        initialize();
-                    }
+            // Jittered, so the watchdogs of things initialized together do not all run at once.
+            long period = TimeUnit.SECONDS.toMillis(WATCHDOG_CHECK_SECONDS);
+            watchdog = HashedWheelTimer.getInstance().scheduleAtFixedRate(() -> {
+                // A client reconnects by itself, only a thing without a client is initialized again.
+                if (tuyaClient == null && getThing().getStatus() != ThingStatus.ONLINE) {
+                    initialize();
                 }
-            }, WATCHDOG_CHECK_SECONDS, WATCHDOG_CHECK_SECONDS, TimeUnit.SECONDS);
+                logger.debug(
+                        "Thing {}: {} channel states published, {} unchanged states suppressed, {} commands merged.",
+                        thing.getUID(), stateCache.getPublished(), stateCache.getSuppressed(),
+                        commandDispatcher.getMergedCommandCount()
+                                + (tuyaClient == null ? 0 : tuyaClient.getMergedCount()));
+            }, HashedWheelTimer.jitteredDelay(period), period, TimeUnit.MILLISECONDS, scheduler);
         }
     }
 
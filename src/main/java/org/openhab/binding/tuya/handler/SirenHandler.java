@@ -18,6 +18,7 @@ import org.eclipse.smarthome.core.thing.ChannelUID;
 import org.eclipse.smarthome.core.thing.Thing;
 import org.openhab.binding.tuya.internal.data.Message;
 import org.openhab.binding.tuya.internal.data.SirenState;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,12 +60,9 @@ public class SirenHandler extends AbstractTuyaHandler {
         commandDispatcher.on(CHANNEL_ALARM, OnOffType.class, (ev, command) -> {
             // Schedule the timeout
             if (command.equals(OnOffType.ON)) {
-                scheduler.schedule(new Runnable() {
-                    @Override
-                    public void run() {
-                        handleCommand(new ChannelUID(thing.getUID(), CHANNEL_ALARM), OnOffType.OFF);
-                    }
-                }, duration, TimeUnit.SECONDS);
+                HashedWheelTimer.getInstance().schedule(
+                        () -> handleCommand(new ChannelUID(thing.getUID(), CHANNEL_ALARM), OnOffType.OFF), duration,
+                        TimeUnit.SECONDS, scheduler);
             }
             return new SirenState(deviceDescriptor).withAlarm(command);
         });
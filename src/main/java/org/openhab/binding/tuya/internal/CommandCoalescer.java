@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.tuya.internal.data.CommandByte;
+import org.openhab.binding.tuya.internal.data.DeviceState;
+import org.openhab.binding.tuya.internal.exceptions.ParseException;
+import org.openhab.binding.tuya.internal.net.TuyaClient;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces CONTROL commands for a single device. Dragging a slider in the UI results in a command for every step,
+ * which would otherwise all be queued as separate messages.
+ *
+ * The first command is sent immediately and opens a window. Commands arriving within the window are merged, the last
+ * value of each data point wins, and sent as a single message when the window ends. As long as commands keep
+ * arriving, a merged message is sent once per window, so the latency of a command is bounded by the window.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class CommandCoalescer {
+
+    private final Logger logger = LoggerFactory.getLogger(CommandCoalescer.class);
+
+    private final ScheduledExecutorService scheduler;
+
+    // The window in milliseconds, 0 to send every command immediately.
+    private volatile int windowMillis;
+
+    // The state of the current window, guarded by the lock of this object.
+    private boolean windowOpen;
+    private TuyaClient client;
+    private DeviceState pending;
+    private Timeout windowEnd;
+
+    // Identifies the current window, so a window end scheduled for a cancelled window is ignored.
+    private long windowId;
+
+    // Statistics, guarded by the lock of this object.
+    private long merged;
+
+    public CommandCoalescer(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Set the window for merging commands.
+     *
+     * @param windowMillis the window in milliseconds, 0 to disable merging.
+     */
+    public void setWindowMillis(int windowMillis) {
+        this.windowMillis = Math.max(0, windowMillis);
+    }
+
+    /**
+     * Send a CONTROL command, or merge it with the pending command when a window is open.
+     *
+     * @param client the client of the device.
+     * @param state  the state to send.
+     * @throws IOException
+     * @throws ParseException
+     */
+    public synchronized void submit(TuyaClient client, DeviceState state) throws IOException, ParseException {
+        if (windowOpen) {
+            if (pending != null && pending.getClass() != state.getClass()) {
+                // Not mergeable, should not happen since a handler uses a single device state class.
+                this.client.send(pending, CommandByte.CONTROL);
+                pending = null;
+            }
+            if (pending == null) {
+                pending = state;
+            } else {
+                pending = pending.merge(state);
+                merged++;
+            }
+            this.client = client;
+            return;
+        }
+        client.send(state, CommandByte.CONTROL);
+        if (windowMillis > 0 && scheduler != null) {
+            windowOpen = true;
+            long id = ++windowId;
+            windowEnd = HashedWheelTimer.getInstance().schedule(() -> endWindow(id), windowMillis,
+                    TimeUnit.MILLISECONDS, scheduler);
+        }
+    }
+
+    /**
+     * Send the pending command, if any, and keep the window open for the next one. The window is closed when no
+     * command arrived.
+     *
+     * @param id the id of the window.
+     */
+    private synchronized void endWindow(long id) {
+        if (id != windowId) {
+            return;
+        }
+        if (pending == null) {
+            windowOpen = false;
+            windowEnd = null;
+            return;
+        }
+        DeviceState state = pending;
+        pending = null;
+        try {
+            client.send(state, CommandByte.CONTROL);
+        } catch (IOException | ParseException e) {
+            logger.error("Error sending coalesced command.", e);
+        }
+        windowEnd = HashedWheelTimer.getInstance().schedule(() -> endWindow(id), windowMillis, TimeUnit.MILLISECONDS,
+                scheduler);
+    }
+
+    /**
+     * Close the window and discard the pending command.
+     */
+    public synchronized void cancel() {
+        if (windowEnd != null) {
+            windowEnd.cancel();
+            windowEnd = null;
+        }
+        windowId++;
+        windowOpen = false;
+        pending = null;
+        client = null;
+    }
+
+    /**
+     * Return the number of commands merged into another command.
+     *
+     * @return the number of commands.
+     */
+    public synchronized long getMergedCount() {
+        return merged;
+    }
+
+}
@@ -10,6 +10,7 @@ package org.openhab.binding.tuya.internal;
 
 import java.io.IOException;
 import java.nio.channels.CancelledKeyException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.BiFunction;
 
 import org.eclipse.smarthome.core.thing.ChannelUID;
@@ -20,7 +21,7 @@ import org.openhab.binding.tuya.internal.data.CommandByte;
 import org.openhab.binding.tuya.internal.data.DeviceState;
 import org.openhab.binding.tuya.internal.exceptions.ParseException;
 import org.openhab.binding.tuya.internal.net.TuyaClient;
-import org.openhab.binding.tuya.internal.util.SingleEventEmitter;
+import org.openhab.binding.tuya.internal.util.EventEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,14 +33,52 @@ import org.slf4j.LoggerFactory;
  * @author Wim Vissers.
  *
  */
-public class CommandDispatcher extends SingleEventEmitter<CommandEvent, Command, DeviceState> {
+public class CommandDispatcher extends EventEmitter<CommandEvent, Command, DeviceState> {
 
     private Logger logger = LoggerFactory.getLogger(CommandDispatcher.class);
     private final ThingUID thingUID;
 
+    // Merges CONTROL commands following each other quickly.
+    private final CommandCoalescer coalescer;
+
     public CommandDispatcher(ThingUID thingUID) {
-        // eventCallbacks = new ConcurrentHashMap<>();
+        this(thingUID, null);
+    }
+
+    /**
+     * Create a dispatcher that coalesces CONTROL commands.
+     *
+     * @param thingUID  the thing UID.
+     * @param scheduler the scheduler for sending coalesced commands, null to send every command immediately.
+     */
+    public CommandDispatcher(ThingUID thingUID, ScheduledExecutorService scheduler) {
         this.thingUID = thingUID;
+        this.coalescer = new CommandCoalescer(scheduler);
+    }
+
+    /**
+     * Set the window in which CONTROL commands are merged.
+     *
+     * @param windowMillis the window in milliseconds, 0 to send every command immediately.
+     */
+    public void setCommandWindowMillis(int windowMillis) {
+        coalescer.setWindowMillis(windowMillis);
+    }
+
+    /**
+     * Discard commands waiting to be merged.
+     */
+    public void cancelPendingCommands() {
+        coalescer.cancel();
+    }
+
+    /**
+     * Return the number of CONTROL commands merged into another command.
+     *
+     * @return the number of commands.
+     */
+    public long getMergedCommandCount() {
+        return coalescer.getMergedCount();
     }
 
     /**
@@ -72,7 +111,11 @@ public class CommandDispatcher extends SingleEventEmitter<CommandEvent, Command,
         DeviceState data = emit(event, command);
         if (data != null) {
             try {
-                client.send(data, commandByte);
+                if (commandByte == CommandByte.CONTROL) {
+                    coalescer.submit(client, data);
+                } else {
+                    client.send(data, commandByte);
+                }
                 event.setHandled(true);
             } catch (IOException | ParseException | CancelledKeyException e) {
                 logger.error("Error dispatching command.", e);
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.smarthome.core.types.State;
+
+/**
+ * The states last published for the channels of a thing. Devices report all their data points in every status
+ * message, so the cache is used to publish only the states that actually changed. Optionally, an unchanged state is
+ * published again when the refresh interval has passed since it was last published.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class StateCache {
+
+    private final ConcurrentHashMap<String, Published> states = new ConcurrentHashMap<>();
+
+    // Interval for publishing unchanged states, 0 to never publish them.
+    private volatile long refreshNanos;
+
+    // Statistics.
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Set the interval after which an unchanged state is published again.
+     *
+     * @param seconds the interval in seconds, 0 or less to publish changes only.
+     */
+    public void setRefreshSeconds(int seconds) {
+        refreshNanos = seconds > 0 ? TimeUnit.SECONDS.toNanos(seconds) : 0;
+    }
+
+    /**
+     * Return true when the state must be published, i.e. when it differs from the state last published for the
+     * channel or the refresh interval has passed. The state is recorded as published.
+     *
+     * @param channel the channel id.
+     * @param state   the new state.
+     * @return true when the state must be published.
+     */
+    public boolean shouldPublish(String channel, State state) {
+        long now = System.nanoTime();
+        Published last = states.get(channel);
+        if (last != null && last.state.equals(state) && (refreshNanos == 0 || now - last.nanos < refreshNanos)) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+        states.put(channel, new Published(state, now));
+        published.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Forget the state of a channel, so the next state is published whatever its value.
+     *
+     * @param channel the channel id.
+     */
+    public void invalidate(String channel) {
+        states.remove(channel);
+    }
+
+    /**
+     * Forget the states of all channels.
+     */
+    public void invalidateAll() {
+        states.clear();
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    private static class Published {
+
+        private final State state;
+        private final long nanos;
+
+        Published(State state, long nanos) {
+            this.state = state;
+            this.nanos = nanos;
+        }
+
+    }
+
+}
@@ -10,6 +10,7 @@ package org.openhab.binding.tuya.internal;
 
 import static org.openhab.binding.tuya.TuyaBindingConstants.*;
 
+import java.util.Dictionary;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -17,10 +18,18 @@ import org.eclipse.smarthome.core.thing.Thing;
 import org.eclipse.smarthome.core.thing.ThingTypeUID;
 import org.eclipse.smarthome.core.thing.binding.BaseThingHandlerFactory;
 import org.eclipse.smarthome.core.thing.binding.ThingHandler;
+import org.openhab.binding.tuya.handler.AbstractTuyaHandler;
 import org.openhab.binding.tuya.handler.ColorLedHandler;
 import org.openhab.binding.tuya.handler.FilamentLedHandler;
 import org.openhab.binding.tuya.handler.PowerPlugHandler;
 import org.openhab.binding.tuya.handler.SirenHandler;
+import org.openhab.binding.tuya.internal.discovery.DeviceRepository;
+import org.openhab.binding.tuya.internal.net.OverflowPolicy;
+import org.openhab.binding.tuya.internal.net.TcpConfig;
+import org.openhab.binding.tuya.internal.net.TuyaClientService;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The {@link TuyaHandlerFactory} is responsible for creating things and thing
@@ -32,6 +41,77 @@ public class TuyaHandlerFactory extends BaseThingHandlerFactory {
 
     private static Set<ThingTypeUID> supportedThingTypes;
 
+    private final Logger logger = LoggerFactory.getLogger(TuyaHandlerFactory.class);
+
+    // Interval for publishing unchanged channel states, 0 to publish changes only.
+    private int stateRefreshSeconds;
+
+    // Window for merging commands, 0 to send every command immediately.
+    private int commandWindowMillis = DEFAULT_COMMAND_WINDOW;
+
+    // What to do with commands when the send queue of a device is full.
+    private OverflowPolicy overflowPolicy = TcpConfig.DEFAULT_OVERFLOW_POLICY;
+
+    // Seconds without frames from a device before heartbeats are sent.
+    private int heartbeatIdleSeconds = TcpConfig.HEARTBEAT_SECONDS;
+
+    /**
+     * Apply the binding configuration.
+     */
+    @Override
+    protected void activate(ComponentContext componentContext) {
+        super.activate(componentContext);
+        Dictionary<String, Object> properties = componentContext.getProperties();
+        TuyaClientService.getInstance().setSelectorCount(getInt(properties, CONFIG_SELECTOR_THREADS, 0));
+        TuyaClientService.getInstance().setMaxConnects(getInt(properties, CONFIG_MAX_CONNECTS, 0));
+        stateRefreshSeconds = getInt(properties, CONFIG_STATE_REFRESH, 0);
+        commandWindowMillis = getInt(properties, CONFIG_COMMAND_WINDOW, DEFAULT_COMMAND_WINDOW);
+        overflowPolicy = getOverflowPolicy(properties);
+        heartbeatIdleSeconds = getInt(properties, CONFIG_HEARTBEAT_IDLE, TcpConfig.HEARTBEAT_SECONDS);
+        Object scanRange = properties == null ? null : properties.get(CONFIG_SCAN_RANGE);
+        DeviceRepository.getInstance().setScanRange(scanRange == null ? null : scanRange.toString());
+    }
+
+    /**
+     * Get the overflow policy from the binding configuration.
+     *
+     * @param properties the configuration properties.
+     * @return the policy, the default when absent or invalid.
+     */
+    private OverflowPolicy getOverflowPolicy(Dictionary<String, Object> properties) {
+        Object value = properties == null ? null : properties.get(CONFIG_OVERFLOW_POLICY);
+        if (value != null && !value.toString().trim().isEmpty()) {
+            try {
+                return OverflowPolicy.valueOf(value.toString().trim());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid value '{}' for binding parameter '{}'.", value, CONFIG_OVERFLOW_POLICY);
+            }
+        }
+        return TcpConfig.DEFAULT_OVERFLOW_POLICY;
+    }
+
+    /**
+     * Get an integer from the binding configuration.
+     *
+     * @param properties   the configuration properties.
+     * @param name         the parameter name.
+     * @param defaultValue the value to use when absent or invalid.
+     * @return the value.
+     */
+    private int getInt(Dictionary<String, Object> properties, String name, int defaultValue) {
+        Object value = properties == null ? null : properties.get(name);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid value '{}' for binding parameter '{}'.", value, name);
+            }
+        }
+        return defaultValue;
+    }
+
     @Override
     public boolean supportsThingType(ThingTypeUID thingTypeUID) {
         if (supportedThingTypes == null) {
@@ -48,17 +128,24 @@ public class TuyaHandlerFactory extends BaseThingHandlerFactory {
     protected ThingHandler createHandler(Thing thing) {
 
         ThingTypeUID thingTypeUID = thing.getThingTypeUID();
+        AbstractTuyaHandler handler = null;
 
         if (thingTypeUID.equals(THING_TYPE_POWER_PLUG)) {
-            return new PowerPlugHandler(thing);
+            handler = new PowerPlugHandler(thing);
         } else if (thingTypeUID.equals(THING_TYPE_COLOR_LED)) {
-            return new ColorLedHandler(thing);
+            handler = new ColorLedHandler(thing);
         } else if (thingTypeUID.equals(THING_TYPE_FILAMENT_LED)) {
-            return new FilamentLedHandler(thing);
+            handler = new FilamentLedHandler(thing);
         } else if (thingTypeUID.equals(THING_TYPE_SIREN)) {
-            return new SirenHandler(thing);
+            handler = new SirenHandler(thing);
         }
 
-        return null;
+        if (handler != null) {
+            handler.setStateRefreshSeconds(stateRefreshSeconds);
+            handler.setCommandWindowMillis(commandWindowMillis);
+            handler.setOverflowPolicy(overflowPolicy);
+            handler.setHeartbeatIdleSeconds(heartbeatIdleSeconds);
+        }
+        return handler;
     }
 }
@@ -82,6 +82,18 @@ public class ColorLedState extends DeviceState {
         return this;
     }
 
+    @Override
+    protected boolean applyDps(DpMap map) {
+        dps = new Dps();
+        dps.dp1 = map.getBoolean(1);
+        dps.dp2 = map.getString(2);
+        dps.dp3 = map.getInteger(3);
+        dps.dp4 = map.getInteger(4);
+        dps.dp5 = map.getString(5);
+        return typed(map, 1, dps.dp1) && typed(map, 2, dps.dp2) && typed(map, 3, dps.dp3)
+                && typed(map, 4, dps.dp4) && typed(map, 5, dps.dp5);
+    }
+
     /**
      * The device properties. Please note that we use boxed classes here,
      * to allow them to be null. In case of setting properties, null properties
@@ -71,6 +71,14 @@ public class CurtainSwitchState extends DeviceState {
         return ds == null ? false : ds.getClass().equals(getClass()) && !((CurtainSwitchState) ds).dps.dp1.equals(dps.dp1);
     }
 
+    @Override
+    protected boolean applyDps(DpMap map) {
+        dps = new Dps();
+        dps.dp1 = map.getBoolean(1);
+        dps.dp9 = map.getInteger(9);
+        return typed(map, 1, dps.dp1) && typed(map, 9, dps.dp9);
+    }
+
     public class Dps {
 
         @SerializedName("1")
@@ -8,9 +8,8 @@
  */
 package org.openhab.binding.tuya.internal.data;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Date;
+import java.util.Map;
 import java.util.function.BiConsumer;
 
 import org.eclipse.smarthome.core.library.types.DecimalType;
@@ -19,11 +18,14 @@ import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.library.types.PercentType;
 import org.eclipse.smarthome.core.types.Command;
 import org.eclipse.smarthome.core.types.State;
-import org.openhab.binding.tuya.internal.annotations.Channel;
 import org.openhab.binding.tuya.internal.discovery.DeviceDescriptor;
 import org.openhab.binding.tuya.internal.net.QueueItem;
+import org.openhab.binding.tuya.internal.util.AccessorTable;
+import org.openhab.binding.tuya.internal.util.AccessorTable.Accessor;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.annotations.SerializedName;
 
 /**
@@ -37,9 +39,6 @@ public class DeviceState {
     // To convert objects to a json String.
     private static final Gson GSON = new Gson();
 
-    // Empty array ready to use.
-    private static final Object[] EMPTY_ARRAY = new Object[0];
-
     // The device ID.
     private String devId;
 
@@ -115,34 +114,63 @@ public class DeviceState {
     }
 
     /**
-     * Traverse through all changed properties and invoke the handler.
+     * Traverse through all changed properties and invoke the handler. The annotated getters are looked up once per
+     * class.
      *
      * @param handler
      */
-    @SuppressWarnings("null")
     public void forChangedProperties(BiConsumer<String, State> handler) {
-        Class<?> theClass = this.getClass();
-        while (theClass != Object.class) {
-            for (Method method : theClass.getDeclaredMethods()) {
-                Channel channel = method.getAnnotation(Channel.class);
-                if (channel != null) {
-                    if (State.class.isAssignableFrom(method.getReturnType())) {
-                        try {
-                            State state = (State) method.invoke(this, EMPTY_ARRAY);
-                            if (state != null) {
-                                handler.accept(channel.value(), state);
-                            }
-                        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                            // Silently ignore this
-                            System.out.println(e);
-                        }
-                    }
-                }
+        for (Accessor accessor : AccessorTable.channels(getClass())) {
+            State state;
+            try {
+                state = (State) accessor.get(this);
+            } catch (RuntimeException e) {
+                // Silently ignore this, e.g. a getter of a data point missing from a partial update. Only this channel
+                // is skipped.
+                continue;
+            }
+            if (state != null) {
+                handler.accept(accessor.getName(), state);
             }
-            theClass = theClass.getSuperclass();
         }
     }
 
+    /**
+     * Fill this state from data points parsed by the DpParser, instead of having Gson fill the fields by reflection.
+     *
+     * @param dps the data points.
+     * @return false when not supported, the state must be parsed by Gson then.
+     */
+    boolean fromDpMap(DpMap dps) {
+        devId = dps.getDevId();
+        time = dps.getTime();
+        return applyDps(dps);
+    }
+
+    /**
+     * Set the data points of the device from the parsed map. Subclasses override this method to take the values of
+     * the data points they know.
+     *
+     * @param dps the data points.
+     * @return true when applied, false to fall back to Gson.
+     */
+    protected boolean applyDps(DpMap dps) {
+        return false;
+    }
+
+    /**
+     * Check the value read for a data point. A data point that is present but could not be read with the expected
+     * type, like a number sent as a string or out of the int range, is left to Gson, which converts it.
+     *
+     * @param dps   the data points.
+     * @param dp    the data point id.
+     * @param value the value read, null when absent or of another type.
+     * @return true when the value is usable, false to fall back to Gson.
+     */
+    protected static boolean typed(DpMap dps, int dp, Object value) {
+        return value != null || !dps.contains(dp);
+    }
+
     public String getDevId() {
         return devId;
     }
@@ -164,6 +192,29 @@ public class DeviceState {
         return false;
     }
 
+    /**
+     * Merge a newer state of the same device into this one, e.g. to send several commands in a single message. The data
+     * points set in the newer state replace those of this state, the others are kept. Neither state is changed.
+     *
+     * @param newer the newer state, of the same class.
+     * @return the merged state, of the class of the newer state.
+     */
+    public DeviceState merge(DeviceState newer) {
+        JsonObject merged = GSON.toJsonTree(this).getAsJsonObject();
+        JsonObject update = GSON.toJsonTree(newer).getAsJsonObject();
+        for (Map.Entry<String, JsonElement> entry : update.entrySet()) {
+            JsonElement dps = merged.get(entry.getKey());
+            if (entry.getKey().equals("dps") && dps != null && dps.isJsonObject() && entry.getValue().isJsonObject()) {
+                for (Map.Entry<String, JsonElement> dp : entry.getValue().getAsJsonObject().entrySet()) {
+                    dps.getAsJsonObject().add(dp.getKey(), dp.getValue());
+                }
+            } else {
+                merged.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return GSON.fromJson(merged, newer.getClass());
+    }
+
     /**
      * Return the json representation as a String.
      *
@@ -173,4 +224,13 @@ public class DeviceState {
         return GSON.toJson(this);
     }
 
+    /**
+     * Write the json representation to the given writer, without creating an intermediate String.
+     *
+     * @param writer the writer.
+     */
+    public void toJson(Appendable writer) {
+        GSON.toJson(this, writer);
+    }
+
 }
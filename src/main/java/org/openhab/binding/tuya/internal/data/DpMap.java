@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.data;
+
+import java.util.Arrays;
+
+/**
+ * The data points of a status message, by data point id. Booleans and numbers are kept in a primitive array, so
+ * only string values are objects. Devices have a handful of data points, so a linear search is used.
+ *
+ * Besides the data points, the device id and time of the message are kept.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class DpMap {
+
+    private static final byte BOOLEAN = 1;
+    private static final byte NUMBER = 2;
+    private static final byte STRING = 3;
+
+    private int[] ids = new int[8];
+    private byte[] types = new byte[8];
+    private long[] numbers = new long[8];
+    private String[] strings = new String[8];
+    private int size;
+
+    private String devId;
+    private long time;
+
+    public void putBoolean(int dp, boolean value) {
+        int index = slot(dp);
+        types[index] = BOOLEAN;
+        numbers[index] = value ? 1 : 0;
+        strings[index] = null;
+    }
+
+    public void putNumber(int dp, long value) {
+        int index = slot(dp);
+        types[index] = NUMBER;
+        numbers[index] = value;
+        strings[index] = null;
+    }
+
+    public void putString(int dp, String value) {
+        int index = slot(dp);
+        types[index] = STRING;
+        strings[index] = value;
+    }
+
+    /**
+     * Return the number of data points.
+     *
+     * @return the number of data points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the id of the data point at the given index.
+     *
+     * @param index the index, 0 up to size().
+     * @return the data point id.
+     */
+    public int getDp(int index) {
+        return ids[index];
+    }
+
+    public boolean contains(int dp) {
+        return indexOf(dp) >= 0;
+    }
+
+    /**
+     * Return the value of a boolean data point.
+     *
+     * @param dp the data point id.
+     * @return the value, or null when absent or not a boolean.
+     */
+    public Boolean getBoolean(int dp) {
+        int index = indexOf(dp);
+        return index >= 0 && types[index] == BOOLEAN ? numbers[index] != 0 : null;
+    }
+
+    /**
+     * Return the value of a numeric data point.
+     *
+     * @param dp the data point id.
+     * @return the value, or null when absent, not a number or out of the int range.
+     */
+    public Integer getInteger(int dp) {
+        int index = indexOf(dp);
+        return index >= 0 && types[index] == NUMBER && numbers[index] == (int) numbers[index] ? (int) numbers[index]
+                : null;
+    }
+
+    /**
+     * Return the value of a string data point.
+     *
+     * @param dp the data point id.
+     * @return the value, or null when absent or not a string.
+     */
+    public String getString(int dp) {
+        int index = indexOf(dp);
+        return index >= 0 && types[index] == STRING ? strings[index] : null;
+    }
+
+    public String getDevId() {
+        return devId;
+    }
+
+    public void setDevId(String devId) {
+        this.devId = devId;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    private int indexOf(int dp) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == dp) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the index of the data point, adding it when absent. A data point given twice keeps the last value.
+     */
+    private int slot(int dp) {
+        int index = indexOf(dp);
+        if (index >= 0) {
+            return index;
+        }
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            types = Arrays.copyOf(types, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+        ids[size] = dp;
+        return size++;
+    }
+
+}
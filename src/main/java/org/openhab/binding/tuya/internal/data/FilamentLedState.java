@@ -67,6 +67,15 @@ public class FilamentLedState extends DeviceState {
         return dps.dp3 == null ? null : toDecimalType(dps.dp3);
     }
 
+    @Override
+    protected boolean applyDps(DpMap map) {
+        dps = new Dps();
+        dps.dp1 = map.getBoolean(1);
+        dps.dp2 = map.getInteger(2);
+        dps.dp3 = map.getInteger(3);
+        return typed(map, 1, dps.dp1) && typed(map, 2, dps.dp2) && typed(map, 3, dps.dp3);
+    }
+
     /**
      * The device properties. Please note that we use boxed classes here,
      * to allow them to be null. In case of setting properties, null properties
@@ -8,7 +8,10 @@
  */
 package org.openhab.binding.tuya.internal.data;
 
+import java.nio.charset.StandardCharsets;
+
 import org.openhab.binding.tuya.internal.discovery.JsonDiscovery;
+import org.openhab.binding.tuya.internal.util.DpParser;
 
 import com.google.gson.Gson;
 
@@ -21,9 +24,14 @@ import com.google.gson.Gson;
 public class Message {
 
     private byte[] payload;
-    private final String data;
+    private String data;
     private static final Gson GSON = new Gson();
 
+    // The decrypted json data, converted to the data String only when asked for.
+    private byte[] json;
+    private int jsonOffset;
+    private int jsonLength;
+
     private long sequenceNumber;
     private CommandByte commandByte;
 
@@ -38,12 +46,33 @@ public class Message {
         this.commandByte = CommandByte.valueOf((int) commandByte);
     }
 
+    /**
+     * Create a message with data that is still UTF-8 encoded. Status messages are parsed directly from the bytes, so
+     * the data String is only created when needed.
+     *
+     * @param payload        the payload.
+     * @param sequenceNumber the sequence number.
+     * @param commandByte    the command.
+     * @param json           the buffer containing the decrypted data.
+     * @param offset         the start of the data in the buffer.
+     * @param length         the length of the data.
+     */
+    public Message(byte[] payload, long sequenceNumber, long commandByte, byte[] json, int offset, int length) {
+        this(payload, sequenceNumber, commandByte, null);
+        this.json = json;
+        this.jsonOffset = offset;
+        this.jsonLength = length;
+    }
+
     /**
      * The raw data may be just an error message, or decoded more complex data.
      * 
      * @return
      */
     public String getData() {
+        if (data == null && json != null) {
+            data = new String(json, jsonOffset, jsonLength, StandardCharsets.UTF_8);
+        }
         return data;
     }
 
@@ -54,6 +83,9 @@ public class Message {
      * @return true if the message contains data.
      */
     public boolean hasData() {
+        if (data == null && json != null) {
+            return jsonLength > 0 && json[jsonOffset] == '{';
+        }
         return data != null && !data.isEmpty() && data.startsWith("{");
     }
 
@@ -92,7 +124,8 @@ public class Message {
     }
 
     /**
-     * Try to parse the message data to the given class.
+     * Try to parse the message data to the given class. Data received from a device is parsed directly from the
+     * decrypted bytes when possible, Gson is used otherwise.
      *
      * @param       %lt;T&gt; This method converts the data to DeviceState or subclasses thereof, given by the target
      *                  class.
@@ -102,6 +135,19 @@ public class Message {
      * @return a new instance of clazz filled with the message data.
      */
     public <T extends DeviceState> T toDeviceState(Class<T> clazz) {
+        if (json != null) {
+            DpMap dps = DpParser.parse(json, jsonOffset, jsonLength);
+            if (dps != null) {
+                try {
+                    T state = clazz.newInstance();
+                    if (state.fromDpMap(dps)) {
+                        return state;
+                    }
+                } catch (InstantiationException | IllegalAccessException e) {
+                    // No public default constructor, use Gson.
+                }
+            }
+        }
         return GSON.fromJson(getData(), clazz);
     }
 
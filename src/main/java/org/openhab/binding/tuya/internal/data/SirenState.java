@@ -67,6 +67,15 @@ public class SirenState extends DeviceState {
         return new DecimalType(dps.dp7);
     }
 
+    @Override
+    protected boolean applyDps(DpMap map) {
+        dps = new Dps();
+        dps.dp13 = map.getBoolean(13);
+        dps.dp7 = map.getInteger(7);
+        dps.dp5 = map.getString(5);
+        return typed(map, 13, dps.dp13) && typed(map, 7, dps.dp7) && typed(map, 5, dps.dp5);
+    }
+
     /**
      * The device properties. Please note that we use boxed classes here,
      * to allow them to be null. In case of setting properties, null properties
@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.discovery;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Drops repeated discovery broadcasts before they are decrypted and parsed. Devices broadcast the same frame every few
+ * seconds, only a new device or a changed frame, e.g. after a firmware update, needs processing. The last frame of
+ * every sender is remembered by a hash of its bytes. A frame equal to the last one of its sender is a duplicate, until
+ * the time to live has passed.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class BroadcastFilter {
+
+    // Remembered frames per sender address. Guarded by the lock of this object.
+    private final Map<InetAddress, Entry> entries = new HashMap<>();
+
+    private final long ttlNanos;
+    private long nextPurge;
+
+    /**
+     * Create a filter.
+     *
+     * @param ttlNanos the time a frame is considered a duplicate, in nanoseconds.
+     */
+    BroadcastFilter(long ttlNanos) {
+        this.ttlNanos = ttlNanos;
+        this.nextPurge = System.nanoTime() + ttlNanos;
+    }
+
+    /**
+     * Return true when the frame must be processed, false when it is a duplicate. The position of the buffer is not
+     * changed.
+     *
+     * @param sender the address of the sender.
+     * @param frame  the frame between position and limit.
+     * @return true when the frame is new.
+     */
+    synchronized boolean accept(InetAddress sender, ByteBuffer frame) {
+        long now = System.nanoTime();
+        if (now - nextPurge > 0) {
+            purge(now);
+        }
+        long hash = hash(frame);
+        int length = frame.remaining();
+        Entry entry = entries.get(sender);
+        if (entry == null) {
+            entries.put(sender, new Entry(hash, length, now + ttlNanos));
+            return true;
+        }
+        if (entry.hash == hash && entry.length == length && entry.expires - now > 0) {
+            return false;
+        }
+        entry.hash = hash;
+        entry.length = length;
+        entry.expires = now + ttlNanos;
+        return true;
+    }
+
+    /**
+     * Remove the expired entries, e.g. of devices that changed their address.
+     */
+    private void purge(long now) {
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            if (now - it.next().expires > 0) {
+                it.remove();
+            }
+        }
+        nextPurge = now + ttlNanos;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the bytes between position and limit.
+     */
+    private static long hash(ByteBuffer frame) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = frame.position(); i < frame.limit(); i++) {
+            hash ^= frame.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static class Entry {
+
+        private long hash;
+        private int length;
+        private long expires;
+
+        Entry(long hash, int length, long expires) {
+            this.hash = hash;
+            this.length = length;
+            this.expires = expires;
+        }
+
+    }
+
+}
@@ -28,6 +28,10 @@ public class DeviceDescriptor {
      */
     private String localKey;
     private AbstractTuyaHandler handler;
+    /**
+     * The time the device was last seen on the network, in milliseconds since the epoch.
+     */
+    private volatile long lastSeen;
 
     public DeviceDescriptor() {
     }
@@ -91,4 +95,12 @@ public class DeviceDescriptor {
         this.handler = handler;
     }
 
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(long lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
 }
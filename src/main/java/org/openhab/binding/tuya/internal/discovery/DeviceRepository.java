@@ -10,18 +10,34 @@ package org.openhab.binding.tuya.internal.discovery;
 
 import static org.openhab.binding.tuya.TuyaBindingConstants.DEFAULT_VERSION;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
 
+import org.openhab.binding.tuya.handler.AbstractTuyaHandler;
+import org.openhab.binding.tuya.internal.data.CommandByte;
 import org.openhab.binding.tuya.internal.data.Message;
+import org.openhab.binding.tuya.internal.data.StatusQuery;
 import org.openhab.binding.tuya.internal.exceptions.ParseException;
+import org.openhab.binding.tuya.internal.exceptions.UnsupportedVersionException;
+import org.openhab.binding.tuya.internal.net.Datagram;
 import org.openhab.binding.tuya.internal.net.DatagramListener;
+import org.openhab.binding.tuya.internal.net.TcpConfig;
+import org.openhab.binding.tuya.internal.net.TuyaClient;
 import org.openhab.binding.tuya.internal.net.UdpConfig;
-import org.openhab.binding.tuya.internal.util.BufferUtils;
+import org.openhab.binding.tuya.internal.util.EventEmitter;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer.Timeout;
 import org.openhab.binding.tuya.internal.util.MessageParser;
-import org.openhab.binding.tuya.internal.util.SingleEventEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,7 +47,27 @@ import org.slf4j.LoggerFactory;
  * @author Wim Vissers.
  *
  */
-public class DeviceRepository extends SingleEventEmitter<String, DeviceDescriptor, Boolean> implements UdpConfig {
+public class DeviceRepository extends EventEmitter<String, DeviceDescriptor, Boolean> implements UdpConfig {
+
+    // Interval for saving the snapshot when devices changed.
+    private static final int SNAPSHOT_SAVE_SECONDS = 60;
+
+    // Change of the time last seen for which the snapshot is saved.
+    private static final long LAST_SEEN_SAVE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // Time an unchanged broadcast of a device is ignored. After it, the broadcast is processed again, which updates
+    // the time last seen and lets an offline thing of the device reconnect without waiting for its backoff.
+    private static final long BROADCAST_TTL_SECONDS = 60;
+
+    // Connects in progress during a scan, and the time a host has to accept.
+    private static final int SCAN_MAX_CONNECTS = 64;
+    private static final int SCAN_CONNECT_TIMEOUT_MILLIS = 1000;
+
+    // Time a device at an unknown address has to answer a status query encrypted with the key of a missing device.
+    private static final int SCAN_IDENTIFY_TIMEOUT_MILLIS = 3000;
+
+    // Maximum number of status queries for identifying missing devices in a single scan.
+    private static final int SCAN_MAX_IDENTIFY = 64;
 
     private MessageParser parser;
     /**
@@ -39,13 +75,9 @@ public class DeviceRepository extends SingleEventEmitter<String, DeviceDescripto
      */
     private static final DeviceRepository INSTANCE = new DeviceRepository();
     /**
-     * Listener for UDP packets transmitted to advertise devices.
-     */
-    private DatagramListener encryptedListener;
-    /**
-     * Listener for UDP packets transmitted to advertise devices.
+     * Listener for UDP packets transmitted to advertise devices, on both the unencrypted and encrypted port.
      */
-    private DatagramListener unencryptedListener;
+    private DatagramListener listener;
     /**
      * The logger instance.
      */
@@ -54,6 +86,32 @@ public class DeviceRepository extends SingleEventEmitter<String, DeviceDescripto
      * Discovered/registered devices. Key is the device id.
      */
     private final ConcurrentHashMap<String, DeviceDescriptor> devices;
+    /**
+     * The snapshot of the devices, loaded at startup. Created when started, since the userdata folder may not be
+     * known before.
+     */
+    private DeviceSnapshot snapshot;
+    /**
+     * The task saving the snapshot.
+     */
+    private Timeout snapshotTask;
+    /**
+     * True when devices changed since the snapshot was saved.
+     */
+    private volatile boolean dirty;
+    /**
+     * Drops repeated broadcasts before decrypting them.
+     */
+    private final BroadcastFilter broadcastFilter = new BroadcastFilter(
+            TimeUnit.SECONDS.toNanos(BROADCAST_TTL_SECONDS));
+    /**
+     * The range probed by a scan, empty for the subnets of the local interfaces.
+     */
+    private volatile String scanRange;
+    /**
+     * True while a scan is running.
+     */
+    private final AtomicBoolean scanning = new AtomicBoolean();
 
     /**
      * Private constructor. It's a singleton.
@@ -78,19 +136,21 @@ public class DeviceRepository extends SingleEventEmitter<String, DeviceDescripto
      * @param scheduler the executer service to use.
      */
     public void start(ScheduledExecutorService scheduler) {
-        if (encryptedListener == null) {
-            encryptedListener = new DatagramListener(DEFAULT_ECRYPTED_UDP_PORT);
-            encryptedListener.on(DatagramListener.Event.UDP_PACKET_RECEIVED, (event, packet) -> {
-                return processPacket(packet);
-            });
-            encryptedListener.start(scheduler);
+        if (snapshot == null) {
+            snapshot = new DeviceSnapshot();
+            loadSnapshot();
+        }
+        // The task is gone too when the timer was stopped.
+        if (snapshotTask == null || !snapshotTask.isPending()) {
+            snapshotTask = HashedWheelTimer.getInstance().scheduleAtFixedRate(this::saveSnapshot, SNAPSHOT_SAVE_SECONDS,
+                    SNAPSHOT_SAVE_SECONDS, TimeUnit.SECONDS, scheduler);
         }
-        if (unencryptedListener == null) {
-            unencryptedListener = new DatagramListener(DEFAULT_UNECRYPTED_UDP_PORT);
-            unencryptedListener.on(DatagramListener.Event.UDP_PACKET_RECEIVED, (event, packet) -> {
-                return processPacket(packet);
+        if (listener == null) {
+            listener = new DatagramListener(DEFAULT_UNECRYPTED_UDP_PORT, DEFAULT_ECRYPTED_UDP_PORT);
+            listener.on(DatagramListener.Event.UDP_PACKET_RECEIVED, (event, datagram) -> {
+                return processPacket(datagram);
             });
-            encryptedListener.start(scheduler);
+            listener.start();
         }
     }
 
@@ -99,37 +159,85 @@ public class DeviceRepository extends SingleEventEmitter<String, DeviceDescripto
      */
     @Override
     public void stop() {
-        if (encryptedListener != null) {
-            encryptedListener.stop();
-            encryptedListener = null;
+        if (snapshotTask != null) {
+            snapshotTask.cancel();
+            snapshotTask = null;
+            saveSnapshot();
+        }
+        if (listener != null) {
+            listener.stop();
+            listener = null;
+        }
+    }
+
+    /**
+     * Add the devices of the snapshot not known yet, and let their handlers connect right away. The broadcasts of the
+     * devices only confirm them, or update a changed ip address.
+     */
+    private void loadSnapshot() {
+        int count = 0;
+        for (DeviceDescriptor dd : snapshot.load()) {
+            if (devices.putIfAbsent(dd.getGwId(), dd) == null) {
+                emit(dd.getGwId(), dd);
+                count++;
+            }
         }
-        if (unencryptedListener != null) {
-            unencryptedListener.stop();
-            unencryptedListener = null;
+        logger.debug("Loaded {} devices from the snapshot.", count);
+    }
+
+    /**
+     * Save the snapshot when devices changed.
+     */
+    private void saveSnapshot() {
+        if (dirty && snapshot != null) {
+            dirty = false;
+            snapshot.save(devices.values());
         }
     }
 
     /**
-     * Process incoming UDP packet.
+     * Process incoming UDP packet. A packet equal to the previous one of its sender is ignored, it was processed
+     * already.
      *
-     * @param packet the packet.
+     * @param datagram the packet and its sender.
      */
-    private boolean processPacket(ByteBuffer packet) {
+    private boolean processPacket(Datagram datagram) {
+        ByteBuffer packet = datagram.getData();
+        if (!broadcastFilter.accept(datagram.getSender().getAddress(), packet)) {
+            return true;
+        }
         try {
-            packet.flip();
-            byte[] buf = BufferUtils.getBytes(packet);
-            Message message = parser.decode(buf);
+            // Broadcasts on the unencrypted port are plain json, so no decryption is attempted.
+            Message message = parser.decode(packet, datagram.getLocalPort() != DEFAULT_UNECRYPTED_UDP_PORT);
             JsonDiscovery jd = message.toJsonDiscovery();
             DeviceDescriptor dd = devices.get(jd.getGwId());
-            if (dd == null) {
-                dd = new DeviceDescriptor(jd);
-                devices.put(jd.getGwId(), dd);
-                emit(jd.getGwId(), dd);
-                logger.info("Add device '{}' with IP address '{}' to the repository", jd.getGwId(), jd.getIp());
-            } else if (dd.getLocalKey() == null) {
-                if (dd.getHandler() != null && !dd.getHandler().isOnline()) {
-                    dd.getHandler().initialize();
+            long now = System.currentTimeMillis();
+            if (dd == null || (jd.getIp() != null && !jd.getIp().equals(dd.getIp()))) {
+                // New, or the ip address changed since the snapshot or the last broadcast. A new descriptor lets the
+                // handler see the change.
+                DeviceDescriptor changed = new DeviceDescriptor(jd);
+                if (dd != null) {
+                    changed.withLocalKey(dd.getLocalKey());
                 }
+                changed.setLastSeen(now);
+                devices.put(jd.getGwId(), changed);
+                dirty = true;
+                emit(jd.getGwId(), changed);
+                logger.info("{} device '{}' with IP address '{}' to the repository", dd == null ? "Add" : "Update",
+                        jd.getGwId(), jd.getIp());
+                return true;
+            }
+            // The time last seen only needs to be saved roughly.
+            if (now - dd.getLastSeen() > LAST_SEEN_SAVE_MILLIS) {
+                dirty = true;
+            }
+            dd.setLastSeen(now);
+            // The device is on the network, so a thing waiting for the next attempt connects right away.
+            AbstractTuyaHandler handler = dd.getHandler();
+            if (handler != null && !handler.isOnline()) {
+                handler.reconnect();
+            }
+            if (dd.getLocalKey() == null) {
                 emit(jd.getGwId(), dd);
             }
             return true;
@@ -139,6 +247,147 @@ public class DeviceRepository extends SingleEventEmitter<String, DeviceDescripto
         }
     }
 
+    /**
+     * Set the range probed by a scan.
+     *
+     * @param scanRange the range in CIDR notation, like 192.168.1.0/24. Empty or null for the subnets of the local
+     *                      network interfaces.
+     */
+    public void setScanRange(String scanRange) {
+        this.scanRange = scanRange;
+    }
+
+    /**
+     * Scan the network for devices, instead of waiting for their broadcasts. Every address of the scan range is
+     * probed on the device port, and the addresses answering are matched with the devices:
+     * <ul>
+     * <li>A device at a known address connects right away when offline.</li>
+     * <li>A device that is offline and whose address did not answer may have moved. It is looked for at the addresses
+     * not known yet, by sending a status query encrypted with its local key. Only the device itself can answer it.</li>
+     * </ul>
+     * The scan blocks until all addresses have been probed, the identification of moved devices continues in the
+     * background.
+     *
+     * @param scheduler the scheduler for the clients identifying moved devices.
+     * @return the number of addresses answering, -1 when a scan was running already or the range is invalid.
+     */
+    public int scan(ScheduledExecutorService scheduler) {
+        if (!scanning.compareAndSet(false, true)) {
+            return -1;
+        }
+        try {
+            long start = System.nanoTime();
+            String range = scanRange;
+            List<InetAddress> hosts = range == null || range.trim().isEmpty() ? SubnetProbe.localAddresses()
+                    : SubnetProbe.addresses(range);
+            List<InetAddress> found = new SubnetProbe(SCAN_MAX_CONNECTS, SCAN_CONNECT_TIMEOUT_MILLIS).probe(hosts,
+                    TcpConfig.DEFAULT_SERVER_PORT);
+            int identifying = probed(found, scheduler);
+            logger.info("Scanned {} addresses in {} ms, {} answered, looking for {} missing devices.", hosts.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), found.size(), identifying);
+            return found.size();
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid scan range '{}': {}", scanRange, e.getMessage());
+            return -1;
+        } catch (IOException e) {
+            logger.error("Error scanning for devices.", e);
+            return -1;
+        } finally {
+            scanning.set(false);
+        }
+    }
+
+    /**
+     * Match the addresses found by a scan with the devices.
+     *
+     * @param found     the addresses answering on the device port.
+     * @param scheduler the scheduler for the clients identifying moved devices.
+     * @return the number of missing devices looked for at the unknown addresses.
+     */
+    private int probed(List<InetAddress> found, ScheduledExecutorService scheduler) {
+        Set<String> answered = new LinkedHashSet<>();
+        for (InetAddress host : found) {
+            answered.add(host.getHostAddress());
+        }
+        Set<String> unknown = new LinkedHashSet<>(answered);
+        List<DeviceDescriptor> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (DeviceDescriptor dd : devices.values()) {
+            AbstractTuyaHandler handler = dd.getHandler();
+            if (answered.contains(dd.getIp())) {
+                unknown.remove(dd.getIp());
+                if (now - dd.getLastSeen() > LAST_SEEN_SAVE_MILLIS) {
+                    dirty = true;
+                }
+                dd.setLastSeen(now);
+                if (handler != null && !handler.isOnline()) {
+                    handler.reconnect();
+                }
+            } else if (handler != null && !handler.isOnline() && dd.getLocalKey() != null) {
+                missing.add(dd);
+            }
+        }
+        if (unknown.isEmpty() || missing.isEmpty()) {
+            return 0;
+        }
+        int queries = 0;
+        for (DeviceDescriptor dd : missing) {
+            for (String host : unknown) {
+                if (queries++ == SCAN_MAX_IDENTIFY) {
+                    logger.debug("Too many addresses and missing devices, not all combinations are tried.");
+                    return missing.size();
+                }
+                identify(dd, host, scheduler);
+            }
+        }
+        return missing.size();
+    }
+
+    /**
+     * Send a status query with the key of a missing device to an address found by a scan. When the device answers,
+     * it moved to the address.
+     *
+     * @param dd        the missing device.
+     * @param host      the address.
+     * @param scheduler the scheduler for the client.
+     */
+    private void identify(DeviceDescriptor dd, String host, ScheduledExecutorService scheduler) {
+        TuyaClient client;
+        try {
+            client = new TuyaClient(dd.getGwId(), host, TcpConfig.DEFAULT_SERVER_PORT,
+                    dd.getVersion() == null ? DEFAULT_VERSION : dd.getVersion(), dd.getLocalKey());
+        } catch (UnsupportedVersionException e) {
+            return;
+        }
+        client.start(scheduler);
+        client.sendAsync(new StatusQuery(dd), CommandByte.DP_QUERY, SCAN_IDENTIFY_TIMEOUT_MILLIS)
+                .whenComplete((message, e) -> {
+                    client.stop();
+                    // The answer is encrypted with the key of the device, so it only contains the id when it is.
+                    if (e == null && message != null && message.hasData() && message.getData().contains(dd.getGwId())) {
+                        moved(dd, host);
+                    }
+                });
+    }
+
+    /**
+     * Update the address of a device found by a scan. Like for a broadcast, a new descriptor lets the handler see the
+     * change.
+     *
+     * @param dd   the descriptor of the device.
+     * @param host the new address.
+     */
+    private void moved(DeviceDescriptor dd, String host) {
+        DeviceDescriptor changed = new DeviceDescriptor(dd.getJsonDiscovery().withIp(host))
+                .withLocalKey(dd.getLocalKey());
+        changed.setLastSeen(System.currentTimeMillis());
+        if (devices.replace(dd.getGwId(), dd, changed)) {
+            dirty = true;
+            emit(dd.getGwId(), changed);
+            logger.info("Update device '{}' with IP address '{}' found by a scan", dd.getGwId(), host);
+        }
+    }
+
     /**
      * Return the device descriptor of the given gwId. Usually the gwId is the same as the devId for standalone devices.
      *
@@ -150,13 +399,14 @@ public class DeviceRepository extends SingleEventEmitter<String, DeviceDescripto
     }
 
     /**
-     * When a new handler is added, emit all the already discovered devices.
+     * When a new handler is added, pass it the device if discovered already.
      */
     @Override
     protected void handlerAdded(String gwId, BiFunction<String, DeviceDescriptor, Boolean> eventCallback) {
-        devices.forEach((key, descriptor) -> {
+        DeviceDescriptor descriptor = devices.get(gwId);
+        if (descriptor != null) {
             eventCallback.apply(gwId, descriptor);
-        });
+        }
     }
 
 }
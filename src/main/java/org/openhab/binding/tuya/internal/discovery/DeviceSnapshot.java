@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.discovery;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.smarthome.config.core.ConfigConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * A snapshot of the devices in the repository, stored in the userdata folder. Loading it at startup lets the things
+ * connect right away, instead of waiting for the broadcasts of their devices.
+ *
+ * For each device the discovery datagram is stored, i.e. the gwId, ip address, version and product key, and the time
+ * it was last seen. The local keys are not stored, they are part of the thing configuration.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class DeviceSnapshot {
+
+    private static final Gson GSON = new Gson();
+    private static final String LAST_SEEN = "lastSeen";
+
+    // Devices not seen for this long are not loaded.
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private final Logger logger = LoggerFactory.getLogger(DeviceSnapshot.class);
+
+    private final Path file;
+
+    /**
+     * Create a snapshot in the userdata folder.
+     */
+    DeviceSnapshot() {
+        this(Paths.get(ConfigConstants.getUserDataFolder(), "tuya", "devices.json"));
+    }
+
+    DeviceSnapshot(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the devices. Devices not seen for a long time are skipped.
+     *
+     * @return the devices, empty when there is no snapshot or it cannot be read.
+     */
+    List<DeviceDescriptor> load() {
+        List<DeviceDescriptor> devices = new ArrayList<>();
+        if (!Files.isRegularFile(file)) {
+            return devices;
+        }
+        long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonArray array = GSON.fromJson(reader, JsonArray.class);
+            if (array != null) {
+                for (JsonElement element : array) {
+                    JsonObject object = element.getAsJsonObject();
+                    long lastSeen = object.has(LAST_SEEN) ? object.get(LAST_SEEN).getAsLong() : 0;
+                    JsonDiscovery jd = GSON.fromJson(object, JsonDiscovery.class);
+                    if (lastSeen >= oldest && jd.getGwId() != null && jd.getIp() != null) {
+                        DeviceDescriptor device = new DeviceDescriptor(jd);
+                        device.setLastSeen(lastSeen);
+                        devices.add(device);
+                    }
+                }
+            }
+        } catch (IOException | JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            logger.warn("Device snapshot {} could not be read: {}", file, e.getMessage());
+            devices.clear();
+        }
+        return devices;
+    }
+
+    /**
+     * Save the devices. The file is replaced atomically, so a crash leaves the previous snapshot.
+     *
+     * @param devices the devices.
+     */
+    void save(Collection<DeviceDescriptor> devices) {
+        JsonArray array = new JsonArray();
+        for (DeviceDescriptor device : devices) {
+            if (device.getJsonDiscovery() != null) {
+                JsonObject object = GSON.toJsonTree(device.getJsonDiscovery()).getAsJsonObject();
+                object.addProperty(LAST_SEEN, device.getLastSeen());
+                array.add(object);
+            }
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                GSON.toJson(array, writer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Device snapshot {} could not be written: {}", file, e.getMessage());
+        }
+    }
+
+}
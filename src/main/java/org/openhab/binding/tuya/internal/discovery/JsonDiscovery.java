@@ -63,4 +63,19 @@ public class JsonDiscovery {
     public String getIp() {
         return ip;
     }
+
+    /**
+     * Return a copy of this discovery with another ip address, for a device found at a new address by a scan.
+     *
+     * @param ip the new ip address.
+     * @return the copy.
+     */
+    public JsonDiscovery withIp(String ip) {
+        JsonDiscovery copy = new JsonDiscovery(gwId, version, ip);
+        copy.active = active;
+        copy.ability = ability;
+        copy.encrypt = encrypt;
+        copy.productKey = productKey;
+        return copy;
+    }
 }
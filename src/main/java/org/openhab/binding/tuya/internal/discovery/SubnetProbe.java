@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.discovery;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Active probe for devices. A TCP connection is opened to the device port of every address of a subnet, the addresses
+ * accepting the connection are returned. The connects are non-blocking and run on a selector of the calling thread,
+ * with a bounded number of connects in progress and a timeout for each connect.
+ *
+ * Nothing is sent, the connections are closed as soon as they are established.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class SubnetProbe {
+
+    // Smallest prefix probed, i.e. at most 1024 addresses per subnet.
+    static final int MIN_PREFIX = 22;
+
+    private final int maxConnects;
+    private final long timeoutNanos;
+
+    /**
+     * Create a probe.
+     *
+     * @param maxConnects   the maximum number of connects in progress.
+     * @param timeoutMillis the time a host has to accept the connection.
+     */
+    SubnetProbe(int maxConnects, int timeoutMillis) {
+        this.maxConnects = Math.max(1, maxConnects);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Probe the hosts, blocking until all of them accepted, refused or timed out.
+     *
+     * @param hosts the hosts.
+     * @param port  the port to connect to.
+     * @return the hosts that accepted the connection, in the order they did.
+     * @throws IOException when the selector could not be opened.
+     */
+    List<InetAddress> probe(List<InetAddress> hosts, int port) throws IOException {
+        List<InetAddress> found = new ArrayList<>();
+        Iterator<InetAddress> next = hosts.iterator();
+        try (Selector selector = Selector.open()) {
+            while (next.hasNext() || !selector.keys().isEmpty()) {
+                while (next.hasNext() && selector.keys().size() < maxConnects) {
+                    connect(selector, next.next(), port, found);
+                }
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(expire(selector))));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Pending pending = (Pending) key.attachment();
+                    try {
+                        if (((SocketChannel) key.channel()).finishConnect()) {
+                            found.add(pending.host);
+                        }
+                    } catch (IOException e) {
+                        // Refused or unreachable.
+                    }
+                    close(key);
+                }
+                // Cancelled keys leave the key set on the next select.
+                selector.selectNow();
+            }
+        }
+        return found;
+    }
+
+    private void connect(Selector selector, InetAddress host, int port, List<InetAddress> found) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(new InetSocketAddress(host, port))) {
+                found.add(host);
+                channel.close();
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT,
+                        new Pending(host, System.nanoTime() + timeoutNanos));
+            }
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the connects that timed out.
+     *
+     * @return the time until the next connect times out.
+     */
+    private long expire(Selector selector) {
+        long now = System.nanoTime();
+        long wait = timeoutNanos;
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid()) {
+                long left = ((Pending) key.attachment()).deadline - now;
+                if (left <= 0) {
+                    close(key);
+                } else {
+                    wait = Math.min(wait, left);
+                }
+            }
+        }
+        return wait;
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Return the addresses of a range like 192.168.1.0/24. The network and broadcast addresses are excluded.
+     *
+     * @param range the range in CIDR notation, or a single address.
+     * @return the addresses.
+     * @throws IllegalArgumentException when the range is invalid or larger than a /22.
+     */
+    static List<InetAddress> addresses(String range) {
+        String[] parts = range.trim().split("/");
+        int prefix = 32;
+        try {
+            if (parts.length == 2) {
+                prefix = Integer.parseInt(parts[1].trim());
+            }
+            InetAddress address = InetAddress.getByName(parts[0].trim());
+            if (parts.length > 2 || !(address instanceof Inet4Address) || prefix > 32) {
+                throw new IllegalArgumentException("Invalid IPv4 range: " + range);
+            }
+            return addresses(address, prefix);
+        } catch (NumberFormatException | UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid IPv4 range: " + range);
+        }
+    }
+
+    /**
+     * Return the addresses of the IPv4 subnets of the local network interfaces that are up. Subnets larger than a /22
+     * are reduced to the /22 around the local address.
+     *
+     * @return the addresses.
+     */
+    static List<InetAddress> localAddresses() {
+        Set<InetAddress> result = new LinkedHashSet<>();
+        try {
+            Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+            if (interfaces == null) {
+                return new ArrayList<>();
+            }
+            for (NetworkInterface ni : Collections.list(interfaces)) {
+                if (!ni.isUp() || ni.isLoopback() || ni.isPointToPoint()) {
+                    continue;
+                }
+                for (InterfaceAddress ia : ni.getInterfaceAddresses()) {
+                    if (ia.getAddress() instanceof Inet4Address) {
+                        List<InetAddress> subnet = addresses(ia.getAddress(),
+                                Math.max(MIN_PREFIX, ia.getNetworkPrefixLength()));
+                        subnet.remove(ia.getAddress());
+                        result.addAll(subnet);
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            // No interfaces to probe.
+        }
+        return new ArrayList<>(result);
+    }
+
+    private static List<InetAddress> addresses(InetAddress address, int prefix) {
+        if (prefix < MIN_PREFIX) {
+            throw new IllegalArgumentException("Range too large, the smallest prefix is /" + MIN_PREFIX);
+        }
+        byte[] bytes = address.getAddress();
+        int ip = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+        int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+        long first = (ip & mask) & 0xFFFFFFFFL;
+        long last = ((ip & mask) | ~mask) & 0xFFFFFFFFL;
+        if (prefix < 31) {
+            // Skip the network and broadcast address.
+            first++;
+            last--;
+        }
+        List<InetAddress> result = new ArrayList<>((int) (last - first + 1));
+        for (long i = first; i <= last; i++) {
+            try {
+                result.add(InetAddress.getByAddress(
+                        new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i }));
+            } catch (UnknownHostException e) {
+                // Not possible for 4 bytes.
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A connect in progress.
+     */
+    private static class Pending {
+
+        private final InetAddress host;
+        private final long deadline;
+
+        Pending(InetAddress host, long deadline) {
+            this.host = host;
+            this.deadline = deadline;
+        }
+
+    }
+
+}
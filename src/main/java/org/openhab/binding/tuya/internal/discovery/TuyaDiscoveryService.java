@@ -68,9 +68,13 @@ public class TuyaDiscoveryService extends AbstractDiscoveryService {
         TuyaClientService.getInstance().stop();
     }
 
+    /**
+     * Probe the network for devices, so devices at a new address are found without waiting for their broadcasts.
+     */
     @Override
     protected void startScan() {
         logger.debug("Starting device search...");
+        scheduler.submit(() -> DeviceRepository.getInstance().scan(scheduler));
     }
 
     @Override
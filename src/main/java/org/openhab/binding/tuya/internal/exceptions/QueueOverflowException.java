@@ -0,0 +1,25 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.exceptions;
+
+/**
+ * Exception when a message is rejected or dropped because the send queue is full.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class QueueOverflowException extends Exception {
+
+    private static final long serialVersionUID = -6189416230475528112L;
+
+    public QueueOverflowException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized buffers for encoding outgoing frames. A buffer is only held while a frame is encoded and
+ * written, so a few buffers serve all clients of a selector loop.
+ *
+ * The buffers are heap buffers: the AES implementation copies direct buffers to temporary arrays, and the socket
+ * channel copies heap buffers to its own cached direct buffer without allocating.
+ *
+ * The pool is not thread safe. Each selector loop owns a pool and only uses it from its own thread.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> buffers;
+
+    // Statistics.
+    private long allocated;
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        buffers = new ArrayDeque<>(maxPooled);
+    }
+
+    /**
+     * Take a cleared buffer from the pool, or allocate a new one when the pool is empty.
+     *
+     * @return the buffer.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.pollFirst();
+        if (buffer == null) {
+            allocated++;
+            return ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers of another size, and buffers exceeding the maximum pool size are left to
+     * the garbage collector.
+     *
+     * @param buffer the buffer (may be null).
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize && !buffer.isReadOnly() && buffer.hasArray()
+                && buffers.size() < maxPooled) {
+            buffers.offerFirst(buffer);
+        }
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    long getAllocated() {
+        return allocated;
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of connects in progress. After a restart, or when an access point comes back, all clients want to
+ * connect at the same time. Too many connects at once make many of them time out, which only leads to more attempts.
+ *
+ * Clients wait in the order of their request, except that clients with messages waiting to be sent, usually
+ * commands of the user, go first.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class ConnectScheduler implements TcpConfig {
+
+    private final Logger logger = LoggerFactory.getLogger(ConnectScheduler.class);
+
+    // The clients waiting to connect, and the clients connecting. Guarded by the lock of this object.
+    private final Set<TuyaClient> waiting = new LinkedHashSet<>();
+    private final Set<TuyaClient> connecting = new HashSet<>();
+
+    private int maxConnects = DEFAULT_MAX_CONNECTS;
+
+    /**
+     * Set the maximum number of connects in progress.
+     *
+     * @param maxConnects the maximum, values below 1 select the default.
+     */
+    void setMaxConnects(int maxConnects) {
+        List<TuyaClient> admitted;
+        synchronized (this) {
+            this.maxConnects = maxConnects < 1 ? DEFAULT_MAX_CONNECTS : maxConnects;
+            admitted = admit();
+        }
+        admitted.forEach(TuyaClient::admitted);
+    }
+
+    /**
+     * Request to connect. The client is told when it may connect, and must call release() when the connect is done,
+     * whether it succeeded or not.
+     *
+     * @param client the client.
+     */
+    void request(TuyaClient client) {
+        List<TuyaClient> admitted;
+        synchronized (this) {
+            if (connecting.contains(client) || !waiting.add(client)) {
+                return;
+            }
+            admitted = admit();
+            if (!waiting.isEmpty()) {
+                logger.debug("{} connects in progress, {} clients waiting to connect.", connecting.size(),
+                        waiting.size());
+            }
+        }
+        admitted.forEach(TuyaClient::admitted);
+    }
+
+    /**
+     * Release the connect of a client, or cancel its request. Nothing happens when the client is not connecting.
+     *
+     * @param client the client.
+     */
+    void release(TuyaClient client) {
+        List<TuyaClient> admitted;
+        synchronized (this) {
+            if (!connecting.remove(client)) {
+                waiting.remove(client);
+                return;
+            }
+            admitted = admit();
+        }
+        admitted.forEach(TuyaClient::admitted);
+    }
+
+    /**
+     * Move waiting clients to connecting as long as the maximum allows. Must be called holding the lock of this object.
+     *
+     * @return the clients that may connect.
+     */
+    private List<TuyaClient> admit() {
+        List<TuyaClient> admitted = new ArrayList<>();
+        while (connecting.size() < maxConnects && !waiting.isEmpty()) {
+            TuyaClient client = next();
+            waiting.remove(client);
+            connecting.add(client);
+            admitted.add(client);
+        }
+        return admitted;
+    }
+
+    /**
+     * Return the first waiting client with messages to send, or the first waiting client when there is none.
+     */
+    private TuyaClient next() {
+        for (TuyaClient client : waiting) {
+            if (client.hasPendingMessages()) {
+                return client;
+            }
+        }
+        return waiting.iterator().next();
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+/**
+ * The state of the connection of a client with its device.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public enum ConnectionState {
+
+    /**
+     * Not started yet.
+     */
+    IDLE,
+
+    /**
+     * A connection is being established.
+     */
+    CONNECTING,
+
+    /**
+     * Connected to the device.
+     */
+    CONNECTED,
+
+    /**
+     * The connection failed or was lost, waiting for the next attempt to connect.
+     */
+    BACKOFF,
+
+    /**
+     * Stopped, the client does not connect again.
+     */
+    STOPPED;
+
+}
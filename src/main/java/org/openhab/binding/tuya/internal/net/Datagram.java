@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A UDP packet received by the DatagramListener, with the address of its sender and the port it was received on. The
+ * listener reuses the instance and its buffer for every packet, so they are only valid during the callback. Handlers
+ * called on an executor get a copy.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class Datagram {
+
+    private InetSocketAddress sender;
+    private int localPort;
+    private ByteBuffer data;
+
+    void set(InetSocketAddress sender, int localPort, ByteBuffer data) {
+        this.sender = sender;
+        this.localPort = localPort;
+        this.data = data;
+    }
+
+    /**
+     * Return a copy of the datagram with a copy of its data, that stays valid after the callback.
+     *
+     * @return the copy.
+     */
+    public Datagram copy() {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate()).flip();
+        Datagram datagram = new Datagram();
+        datagram.set(sender, localPort, copy);
+        return datagram;
+    }
+
+    /**
+     * Return the address the packet was sent from.
+     *
+     * @return the address.
+     */
+    public InetSocketAddress getSender() {
+        return sender;
+    }
+
+    /**
+     * Return the port the packet was received on.
+     *
+     * @return the port.
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * Return the data of the packet, between position and limit.
+     *
+     * @return the data.
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+}
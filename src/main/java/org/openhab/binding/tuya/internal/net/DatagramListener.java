@@ -10,83 +10,205 @@ package org.openhab.binding.tuya.internal.net;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketTimeoutException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
-import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
-import org.openhab.binding.tuya.internal.util.SingleEventEmitter;
+import org.openhab.binding.tuya.internal.util.EventEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Listener for UDP messages on the specified port.
+ * Listener for UDP messages on one or more ports.
+ *
+ * A non-blocking channel is bound to every port for as long as the listener runs, so no packets are lost between
+ * receives. All channels share a single selector and thread. A port that cannot be bound, e.g. because it is in use,
+ * is tried again later without affecting the other ports.
+ *
+ * The packets are received into a single buffer and emitted with the address of their sender and the port they were
+ * received on. The datagram and its buffer are only valid during the callback, a handler that needs the data later
+ * must copy it. Handlers added with an executor get a copy of the datagram.
  *
  * @author Wim Vissers.
  *
  */
-public class DatagramListener extends SingleEventEmitter<DatagramListener.Event, ByteBuffer, Boolean>
+public class DatagramListener extends EventEmitter<DatagramListener.Event, Datagram, Boolean>
         implements UdpConfig {
 
-    private Future<?> task;
-    private int port;
+    private final int[] ports;
     private final Logger logger;
-    private boolean running;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile Selector selector;
+
+    // The channel of every port, null while not bound. Only used by the listener thread.
+    private final DatagramChannel[] channels;
+    private final long[] retryNanos;
 
-    public DatagramListener(int port) {
+    // The datagram emitted, reused for every packet.
+    private final Datagram datagram = new Datagram();
+
+    public DatagramListener(int... ports) {
         logger = LoggerFactory.getLogger(this.getClass());
-        this.port = port;
+        this.ports = ports.clone();
+        channels = new DatagramChannel[ports.length];
+        retryNanos = new long[ports.length];
+    }
+
+    /**
+     * Start listening on a thread of its own.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            running = true;
+            thread = new Thread(this::run, "tuya-discovery");
+            thread.setDaemon(true);
+            thread.start();
+        }
     }
 
     /**
      * Main loop.
      */
-    public void start(ScheduledExecutorService scheduler) {
-        if (task == null) {
-            Runnable runnable = new Runnable() {
-                @Override
-                public void run() {
-                    running = true;
-                    DatagramChannel channel = null;
-                    ByteBuffer buf = ByteBuffer.allocate(UDP_SOCKET_BUFFER_SIZE);
-                    while (running) {
-                        try {
-                            if (channel == null) {
-                                channel = DatagramChannel.open();
-                                channel.socket().bind(new InetSocketAddress(port));
-                            }
-                            buf.clear();
-                            channel.receive(buf);
-                            byte[] res = new byte[buf.position()];
-                            buf.flip();
-                            buf.get(res);
-                            emit(Event.UDP_PACKET_RECEIVED, buf);
-                        } catch (SocketTimeoutException ignored) {
-                        } catch (IOException ex1) {
-                            logger.error("DatagramEventEmitter", ex1);
-                        } finally {
-                            if (channel != null) {
-                                try {
-                                    channel.close();
-                                    channel = null;
-                                } catch (IOException e) {
-                                }
-                            }
+    private void run() {
+        ByteBuffer buf = ByteBuffer.allocate(UDP_SOCKET_BUFFER_SIZE);
+        while (running) {
+            try (Selector selector = Selector.open()) {
+                this.selector = selector;
+                while (running) {
+                    long timeout = bind(selector);
+                    if (selector.select(timeout) > 0) {
+                        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                        while (keys.hasNext()) {
+                            SelectionKey key = keys.next();
+                            keys.remove();
+                            receive(key, buf);
                         }
                     }
                 }
-            };
-            task = scheduler.submit(runnable);
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Error listening on UDP, retrying in {} seconds.", UDP_RETRY_SECONDS, e);
+                    try {
+                        TimeUnit.SECONDS.sleep(UDP_RETRY_SECONDS);
+                    } catch (InterruptedException ie) {
+                        break;
+                    }
+                }
+            } finally {
+                selector = null;
+                for (int i = 0; i < channels.length; i++) {
+                    close(i);
+                }
+            }
         }
     }
 
+    /**
+     * Bind the ports without a channel whose retry time has come.
+     *
+     * @param selector the selector to register the channels with.
+     * @return the time to wait for packets in milliseconds, until the next retry when a port is not bound.
+     */
+    private long bind(Selector selector) {
+        long now = System.nanoTime();
+        long timeout = UDP_SOCKET_TIMEOUT;
+        for (int i = 0; i < ports.length; i++) {
+            if (channels[i] == null && now - retryNanos[i] >= 0) {
+                try {
+                    channels[i] = open(ports[i]);
+                    channels[i].register(selector, SelectionKey.OP_READ, i);
+                } catch (IOException e) {
+                    close(i);
+                    retryNanos[i] = now + TimeUnit.SECONDS.toNanos(UDP_RETRY_SECONDS);
+                    logger.error("Error listening on UDP port {}, retrying in {} seconds.", ports[i],
+                            UDP_RETRY_SECONDS, e);
+                }
+            }
+            if (channels[i] == null) {
+                timeout = Math.min(timeout, Math.max(1, TimeUnit.NANOSECONDS.toMillis(retryNanos[i] - now)));
+            }
+        }
+        return timeout;
+    }
+
+    private DatagramChannel open(int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            // Room for bursts of broadcasts from many devices.
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, UDP_RECEIVE_BUFFER_SIZE);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        return channel;
+    }
+
+    private void close(int index) {
+        if (channels[index] != null) {
+            try {
+                channels[index].close();
+            } catch (IOException ignored) {
+            }
+            channels[index] = null;
+        }
+    }
+
+    /**
+     * Receive all packets waiting on the channel of the key, and emit them one by one. When the channel fails, it is
+     * closed and bound again later.
+     */
+    private void receive(SelectionKey key, ByteBuffer buf) {
+        int index = (Integer) key.attachment();
+        DatagramChannel channel = channels[index];
+        try {
+            buf.clear();
+            for (SocketAddress sender = channel.receive(buf); sender != null; sender = channel.receive(buf)) {
+                buf.flip();
+                datagram.set((InetSocketAddress) sender, ports[index], buf);
+                try {
+                    emit(Event.UDP_PACKET_RECEIVED, datagram);
+                } catch (RuntimeException e) {
+                    logger.error("Error handling UDP packet.", e);
+                }
+                buf.clear();
+            }
+        } catch (IOException e) {
+            logger.error("Error receiving on UDP port {}, retrying in {} seconds.", ports[index], UDP_RETRY_SECONDS,
+                    e);
+            close(index);
+            retryNanos[index] = System.nanoTime() + TimeUnit.SECONDS.toNanos(UDP_RETRY_SECONDS);
+        }
+    }
+
+    @Override
+    protected Datagram detach(Datagram payload) {
+        return payload.copy();
+    }
+
     @Override
     public void stop() {
-        running = false;
-        if (task != null) {
-            task.cancel(true);
-            task = null;
+        synchronized (this) {
+            running = false;
+            Selector selector = this.selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+            if (thread != null) {
+                thread.interrupt();
+                thread = null;
+            }
         }
         super.stop();
     }
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accumulating decoder that splits the TCP byte stream of a single connection into Tuya frames. A frame starts with
+ * the 000055AA prefix, has its length in the header and ends with the 0000AA55 suffix. A single read may contain a
+ * partial frame, exactly one frame or several frames. Partial frames are retained until the next read, and every
+ * complete frame is handed to the frame handler.
+ *
+ * The receive buffer is reused for the lifetime of the connection. It only grows when a single frame does not fit.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class FrameDecoder implements TcpConfig {
+
+    private static final int PREFIX = 0x000055AA;
+    private static final int SUFFIX = 0x0000AA55;
+
+    // Prefix (4), sequence (4), command (4) and length (4).
+    private static final int HEADER_SIZE = 16;
+
+    // The length field counts the bytes after the header, and at least covers the CRC (4) and suffix (4).
+    private static final int MIN_LENGTH = 8;
+
+    private final Logger logger = LoggerFactory.getLogger(FrameDecoder.class);
+
+    // The receive buffer, always in write mode between calls.
+    private ByteBuffer buffer;
+
+    // Reusable view on the receive buffer, positioned on the frame handed to the frame handler.
+    private ByteBuffer frame;
+
+    // Number of bytes skipped while searching for a valid frame.
+    private long skipped;
+
+    public FrameDecoder() {
+        this(TCP_SOCKET_BUFFER_SIZE);
+    }
+
+    public FrameDecoder(int capacity) {
+        buffer = ByteBuffer.allocate(capacity);
+        frame = buffer.duplicate();
+    }
+
+    /**
+     * Read available bytes from the channel into the receive buffer.
+     *
+     * @param channel the channel to read from.
+     * @return the number of bytes read, or -1 at end of stream.
+     * @throws IOException when reading fails.
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        if (!buffer.hasRemaining()) {
+            grow();
+        }
+        return channel.read(buffer);
+    }
+
+    /**
+     * Emit every complete frame in the receive buffer. The frame buffer passed to the handler is only valid during the
+     * call, its position and limit enclose exactly one frame. Bytes of an incomplete frame are kept for the next call.
+     * A frame the handler fails on is logged and dropped, the frames after it are still emitted.
+     *
+     * @param handler the frame handler.
+     * @return the number of frames emitted.
+     */
+    public int decode(Consumer<ByteBuffer> handler) {
+        int count = 0;
+        buffer.flip();
+        try {
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int start = buffer.position();
+                if (buffer.getInt(start) != PREFIX) {
+                    skipToPrefix();
+                    continue;
+                }
+                int length = buffer.getInt(start + 12);
+                if (length < MIN_LENGTH || length > MAX_FRAME_SIZE - HEADER_SIZE) {
+                    // Not a sensible frame, resynchronize on the next prefix.
+                    skip(1);
+                    continue;
+                }
+                int size = HEADER_SIZE + length;
+                if (buffer.remaining() < size) {
+                    break;
+                }
+                if (buffer.getInt(start + size - 4) != SUFFIX) {
+                    skip(1);
+                    continue;
+                }
+                frame.limit(start + size);
+                frame.position(start);
+                buffer.position(start + size);
+                count++;
+                try {
+                    handler.accept(frame);
+                } catch (RuntimeException e) {
+                    logger.error("Error handling frame, frame dropped.", e);
+                }
+            }
+        } finally {
+            // Back to write mode, also when decoding fails, so handled frames are never emitted again.
+            buffer.compact();
+        }
+        return count;
+    }
+
+    /**
+     * Discard any buffered bytes, e.g. when the connection is reset.
+     */
+    public void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * Return the total number of bytes discarded while resynchronizing on the frame prefix.
+     *
+     * @return the number of bytes.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Advance to the next occurrence of the prefix, or keep the last 3 bytes if none is found since they may be the
+     * start of a prefix that is not complete yet.
+     */
+    private void skipToPrefix() {
+        int limit = buffer.limit();
+        for (int p = buffer.position() + 1; p <= limit - 4; p++) {
+            if (buffer.getInt(p) == PREFIX) {
+                skip(p - buffer.position());
+                return;
+            }
+        }
+        skip(Math.max(1, buffer.remaining() - 3));
+    }
+
+    private void skip(int count) {
+        buffer.position(buffer.position() + count);
+        skipped += count;
+    }
+
+    /**
+     * Enlarge the receive buffer when a frame does not fit. This only happens for frames larger than any frame seen
+     * before on this connection.
+     */
+    private void grow() {
+        if (buffer.capacity() >= MAX_FRAME_SIZE) {
+            // Should not happen since frames are bounded, but never get stuck on a full buffer.
+            buffer.clear();
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_FRAME_SIZE));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+        frame = buffer.duplicate();
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.openhab.binding.tuya.internal.data.CommandByte;
+
+/**
+ * The messages sent to a device that are waiting for a response, keyed by their sequence number. The device echoes
+ * the sequence number in its response, so several messages can be outstanding at the same time and every response
+ * acknowledges the message it belongs to. Unsolicited status updates do not acknowledge anything.
+ *
+ * The window also keeps the response time statistics of the device.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class InFlightWindow {
+
+    private final int capacity;
+
+    // Insertion ordered, so the oldest message comes first.
+    private final LinkedHashMap<Long, QueueItem> items;
+
+    // The highest sequence number sent.
+    private long lastSequenceNo;
+
+    // Statistics.
+    private long acknowledged;
+    private long timedOut;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    InFlightWindow(int capacity) {
+        this.capacity = capacity;
+        items = new LinkedHashMap<>();
+    }
+
+    /**
+     * Return true when another message may be sent.
+     *
+     * @return true when there is room in the window.
+     */
+    synchronized boolean hasRoom() {
+        return items.size() < capacity;
+    }
+
+    /**
+     * Return the number of messages waiting for a response.
+     *
+     * @return the number of messages.
+     */
+    synchronized int size() {
+        return items.size();
+    }
+
+    /**
+     * Add a message that has been sent.
+     *
+     * @param item the message, marked as sent.
+     */
+    synchronized void add(QueueItem item) {
+        items.put(item.getSequenceNo(), item);
+        lastSequenceNo = Math.max(lastSequenceNo, item.getSequenceNo());
+    }
+
+    /**
+     * Find and remove the message the response belongs to. The response is matched on sequence number. Devices that
+     * do not echo the sequence number are supported by matching the oldest message with the same command, except for
+     * status updates which may be unsolicited. A late response to a message that has already expired carries a sequence
+     * number that was sent before, it is not matched to another message.
+     *
+     * @param sequenceNo  the sequence number of the response.
+     * @param commandByte the command of the response.
+     * @param now         the current time in nanoseconds.
+     * @return the acknowledged message, or null if the response does not belong to a message in the window.
+     */
+    synchronized QueueItem acknowledge(long sequenceNo, CommandByte commandByte, long now) {
+        QueueItem item = items.remove(sequenceNo);
+        if (item == null && commandByte != CommandByte.STATUS && (sequenceNo == 0 || sequenceNo > lastSequenceNo)) {
+            Iterator<QueueItem> iterator = items.values().iterator();
+            while (iterator.hasNext()) {
+                QueueItem candidate = iterator.next();
+                if (candidate.getCommandByte() == commandByte) {
+                    iterator.remove();
+                    item = candidate;
+                    break;
+                }
+            }
+        }
+        if (item != null) {
+            long latency = now - item.getSentNanos();
+            acknowledged++;
+            totalLatencyNanos += latency;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latency);
+        }
+        return item;
+    }
+
+    /**
+     * Remove and return the messages that have not been answered within the timeout, or before their own deadline.
+     *
+     * @param now           the current time in nanoseconds.
+     * @param timeoutNanos  the timeout in nanoseconds.
+     * @return the expired messages, oldest first.
+     */
+    synchronized List<QueueItem> expire(long now, long timeoutNanos) {
+        List<QueueItem> expired = null;
+        // Messages with a deadline of their own may expire before older ones, the window is small so all are checked.
+        Iterator<QueueItem> iterator = items.values().iterator();
+        while (iterator.hasNext()) {
+            QueueItem item = iterator.next();
+            if (!item.isExpired(now, timeoutNanos)) {
+                continue;
+            }
+            iterator.remove();
+            if (expired == null) {
+                expired = new ArrayList<>();
+            }
+            expired.add(item);
+            timedOut++;
+        }
+        return expired;
+    }
+
+    /**
+     * Remove and return all messages, e.g. when the connection is lost.
+     *
+     * @return the messages, oldest first.
+     */
+    synchronized List<QueueItem> drain() {
+        List<QueueItem> result = new ArrayList<>(items.values());
+        items.clear();
+        return result;
+    }
+
+    synchronized long getAcknowledged() {
+        return acknowledged;
+    }
+
+    synchronized long getTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Return the average response time.
+     *
+     * @return the average response time in milliseconds, or 0 when nothing has been acknowledged yet.
+     */
+    synchronized double getAverageLatencyMillis() {
+        return acknowledged == 0 ? 0 : totalLatencyNanos / 1e6 / acknowledged;
+    }
+
+    synchronized double getMaxLatencyMillis() {
+        return maxLatencyNanos / 1e6;
+    }
+
+}
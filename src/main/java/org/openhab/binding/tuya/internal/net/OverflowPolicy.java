@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+/**
+ * What to do with a message when the send queue of a client is full. A full queue means the device is slow or
+ * commands arrive faster than it can handle them, not that it is offline.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Drop the oldest queued message to make room.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Merge the message with a queued message of the same kind. The oldest queued CONTROL message is merged with a new
+     * CONTROL message, the data points of the new message win, and is queued again at the end. A query is answered by
+     * the same query already queued. When no such message is queued, the message is rejected.
+     */
+    COALESCE,
+
+    /**
+     * Reject the message.
+     */
+    REJECT;
+
+}
@@ -8,8 +8,15 @@
  */
 package org.openhab.binding.tuya.internal.net;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import org.openhab.binding.tuya.internal.data.CommandByte;
 import org.openhab.binding.tuya.internal.data.DeviceState;
+import org.openhab.binding.tuya.internal.data.Message;
+import org.openhab.binding.tuya.internal.util.ByteBufferWriter;
 import org.openhab.binding.tuya.internal.util.MessageParser;
 
 /**
@@ -23,6 +30,17 @@ public class QueueItem {
     private final CommandByte commandByte;
     private final DeviceState deviceState;
 
+    // The sequence number and time (System.nanoTime) of the last transmission.
+    private long sequenceNo = -1;
+    private long sentNanos;
+
+    // The deadline for the response (System.nanoTime) and the timeout it was set with, 0 for the default timeout.
+    private long deadlineNanos;
+    private long timeoutMillis;
+
+    // Completed with the response of the device, or exceptionally when the item is not answered.
+    private final CompletableFuture<Message> future = new CompletableFuture<>();
+
     public QueueItem(DeviceState deviceState, CommandByte commandByte) {
         this.deviceState = deviceState;
         this.commandByte = commandByte;
@@ -36,6 +54,99 @@ public class QueueItem {
         return deviceState;
     }
 
+    /**
+     * Return the future completed with the response of the device. It completes exceptionally when the item is
+     * rejected, dropped or not answered in time.
+     *
+     * @return the future.
+     */
+    public CompletableFuture<Message> getFuture() {
+        return future;
+    }
+
+    /**
+     * Complete this item with the result of another item, when this item is replaced by the other one.
+     *
+     * @param other the item replacing this item.
+     */
+    public void completeWith(QueueItem other) {
+        other.future.whenComplete((message, e) -> {
+            if (e == null) {
+                future.complete(message);
+            } else {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    public long getSequenceNo() {
+        return sequenceNo;
+    }
+
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    /**
+     * Set a deadline for the response, counted from now. Without one, the item times out when not answered within
+     * the default timeout after it was sent.
+     *
+     * @param timeoutMillis the time in milliseconds the device has to answer.
+     */
+    public void setTimeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Return the timeout of this item.
+     *
+     * @param defaultMillis the default timeout in milliseconds.
+     * @return the timeout set, or the default.
+     */
+    public long getTimeoutMillis(long defaultMillis) {
+        return timeoutMillis > 0 ? timeoutMillis : defaultMillis;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * Return true when this item has a deadline of its own.
+     *
+     * @return true when a timeout was set.
+     */
+    public boolean hasDeadline() {
+        return timeoutMillis > 0;
+    }
+
+    /**
+     * Return true when the item was not answered in time. An item with a deadline expires at the deadline, whether sent
+     * or not. Other items expire when not answered within the default timeout after they were sent.
+     *
+     * @param now          the current time (System.nanoTime).
+     * @param timeoutNanos the default timeout in nanoseconds.
+     * @return true when expired.
+     */
+    public boolean isExpired(long now, long timeoutNanos) {
+        if (timeoutMillis > 0) {
+            return now - deadlineNanos >= 0;
+        }
+        return sequenceNo >= 0 && now - sentNanos >= timeoutNanos;
+    }
+
+    /**
+     * Record the transmission of this item.
+     *
+     * @param sequenceNo the sequence number used.
+     * @param sentNanos  the time of sending (System.nanoTime).
+     */
+    public void markSent(long sequenceNo, long sentNanos) {
+        this.sequenceNo = sequenceNo;
+        this.sentNanos = sentNanos;
+    }
+
     /**
      * Encode the item for sending.
      * 
@@ -48,6 +159,67 @@ public class QueueItem {
         return messageParser.encode(data.getBytes(), commandByte, sequenceNo);
     }
 
+    /**
+     * Encode the item for sending into a buffer. The json is serialized into the scratch buffer and then encrypted into
+     * the frame buffer, without intermediate Strings or arrays.
+     *
+     * @param messageParser the message parser (depends on the thing).
+     * @param sequenceNo    sequence number provided by the Tuya client.
+     * @param scratch       buffer for the unencrypted json, overwritten.
+     * @param frame         the buffer to write the frame to, starting at its position.
+     * @return true when encoded, false when the message does not fit in the buffers.
+     */
+    public boolean encode(MessageParser messageParser, long sequenceNo, ByteBuffer scratch, ByteBuffer frame) {
+        scratch.clear();
+        if (deviceState != null) {
+            try {
+                deviceState.toJson(new ByteBufferWriter(scratch));
+            } catch (BufferOverflowException e) {
+                return false;
+            }
+        }
+        scratch.flip();
+        return messageParser.encode(scratch, commandByte, sequenceNo, frame);
+    }
+
+    /**
+     * Return true when the given item can be merged into this item. Only CONTROL items of the same device state class
+     * that have not been sent yet are merged. Items with a deadline of their own are not merged, so they expire at it.
+     *
+     * @param newer the item queued after this item.
+     * @return true when mergeable.
+     */
+    public boolean isMergeable(QueueItem newer) {
+        return newer != null && commandByte == CommandByte.CONTROL && newer.commandByte == CommandByte.CONTROL
+                && sequenceNo < 0 && !hasDeadline() && !newer.hasDeadline() && deviceState != null
+                && newer.deviceState != null && deviceState.getClass() == newer.deviceState.getClass();
+    }
+
+    /**
+     * Merge the data points of a newer item into a new item. The values of the newer item win.
+     *
+     * @param newer the item queued after this item.
+     * @return the merged item.
+     */
+    public QueueItem merge(QueueItem newer) {
+        QueueItem merged = new QueueItem(deviceState.merge(newer.deviceState), commandByte);
+        completeWith(merged);
+        newer.completeWith(merged);
+        return merged;
+    }
+
+    /**
+     * Return true when the given item asks the same as this item, so it can be answered by the response to this item.
+     * This applies to queries and heartbeats that have not been sent yet.
+     *
+     * @param other the other item.
+     * @return true when duplicate.
+     */
+    public boolean isDuplicate(QueueItem other) {
+        return other != null && commandByte != CommandByte.CONTROL && commandByte == other.commandByte
+                && sequenceNo < 0;
+    }
+
     /**
      * Return true when the given QueueItem is conflicting with this item. This test is used to remove conflicting items from the queue. An example is a switch that may be on or off, and it makes no sense to have both an on and an off command in the queue at the same time.
      * @param other the item to compare to.
@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.net;
+
+import static java.nio.channels.SelectionKey.*;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.tuya.internal.exceptions.NoDataException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single event loop with its own selector and thread, servicing the TCP connections of the clients pinned to it.
+ * The TuyaClientService distributes the clients over a pool of these loops.
+ *
+ * @author Wim Vissers.
+ *
+ */
+class SelectorLoop implements Runnable, TcpConfig {
+
+    private final String name;
+    private ExecutorService executor;
+    private Selector selector;
+
+    // Held while registering channels, so the loop does not re-enter select in the meantime.
+    private final Object registrationLock = new Object();
+
+    // Loop status.
+    private volatile boolean running;
+
+    // The main task Future.
+    private Future<?> mainTask;
+
+    // Time (System.nanoTime) of the last check for unanswered messages.
+    private long lastTimeoutCheck;
+
+    // The buffers for encoding outgoing frames, only used by the loop thread.
+    private final BufferPool bufferPool = new BufferPool(ENCODE_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    // Table containing the clients. The Selection keys attachment are not suitable.
+    private final ConcurrentHashMap<SelectionKey, TuyaClient> clients = new ConcurrentHashMap<>();
+
+    private final Logger logger;
+
+    SelectorLoop(String name) {
+        this.name = name;
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * Register the channel with the selector of this loop. Safe to call from any thread: the selector is woken up and
+     * the loop waits until the registration is complete before selecting again.
+     *
+     * @param channel the channel.
+     * @param ops     the interest set.
+     * @param client  the client to service.
+     * @return the SelectionKey.
+     * @throws IOException when the channel cannot be registered.
+     */
+    SelectionKey register(SocketChannel channel, int ops, TuyaClient client) throws IOException {
+        synchronized (registrationLock) {
+            selector.wakeup();
+            SelectionKey key = channel.register(selector, ops);
+            clients.put(key, client);
+            return key;
+        }
+    }
+
+    /**
+     * Return the number of clients serviced by this loop.
+     *
+     * @return the number of clients.
+     */
+    int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Remove keys that are cancelled.
+     */
+    private void cleanClientsMap() {
+        clients.keySet().forEach(key -> {
+            if (!key.isValid()) {
+                close(key.channel());
+                clients.remove(key);
+            }
+        });
+    }
+
+    /**
+     * Let the clients expire unanswered messages, at most once a second.
+     */
+    private void checkTimeouts() {
+        long now = System.nanoTime();
+        if (now - lastTimeoutCheck >= TimeUnit.SECONDS.toNanos(1)) {
+            lastTimeoutCheck = now;
+            clients.values().forEach(client -> client.checkTimeouts(now));
+        }
+    }
+
+    /**
+     * The main loop services incoming data for the clients pinned to this loop.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                // Wait for a registration in progress.
+                synchronized (registrationLock) {
+                }
+                selector.select(SELECTOR_TIMEOUT_MILLIS);
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isConnectable()) {
+                        connect(key);
+                        continue;
+                    }
+                    if (key.isReadable()) {
+                        read(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(key);
+                    }
+                }
+                cleanClientsMap();
+                checkTimeouts();
+            } catch (IOException e) {
+                logger.error("IOException servicing Tuya client", e);
+            } catch (RuntimeException e) {
+                // Never let a single misbehaving client terminate the loop for all others.
+                logger.error("Unexpected exception servicing Tuya client", e);
+            }
+
+        }
+        cleanUp();
+    }
+
+    /**
+     * Handle connect request.
+     *
+     * @param key the SelectionKey.
+     * @throws IOException
+     */
+    protected void connect(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        TuyaClient client = clients.get(key);
+        try {
+            logger.debug("Connecting {}.", client);
+            channel.finishConnect();
+            channel.configureBlocking(false);
+            channel.register(selector, OP_READ | OP_WRITE);
+            client.handleConnect(key);
+        } catch (IOException e) {
+            logger.debug("Error connecting {}.", client);
+            key.channel().close();
+            key.cancel();
+            if (client != null) {
+                client.handleDisconnect(key, e);
+            }
+        }
+    }
+
+    /**
+     * Handle read request.
+     *
+     * @param key the SelectionKey.
+     * @throws IOException
+     */
+    protected void read(SelectionKey key) throws IOException {
+        if (key == null) {
+            logger.debug("No key: read cancelled.");
+            return;
+        }
+        SocketChannel channel = (SocketChannel) key.channel();
+        TuyaClient client = clients.get(key);
+        if (client == null) {
+            logger.error("No client for key {}.", key);
+            // Nobody to deliver the data to, the key will be cleaned up.
+            key.cancel();
+            channel.close();
+            return;
+        }
+
+        logger.debug("Read from channel {}.", channel);
+        int readCount;
+
+        try {
+            readCount = client.getFrameDecoder().read(channel);
+        } catch (IOException e) {
+            key.cancel();
+            channel.close();
+            client.handleDisconnect(key, e);
+            return;
+        }
+
+        if (readCount == -1) {
+            // Channel is no longer active - clean up
+            key.channel().close();
+            key.cancel();
+            client.handleDisconnect(key, new NoDataException());
+            return;
+        }
+
+        // Hand over every complete frame, partial frames are kept for the next read.
+        client.getFrameDecoder().decode(frame -> client.handleData(key, frame));
+    }
+
+    /**
+     * Handle write request.
+     *
+     * @param key the SelectionKey.
+     * @throws IOException
+     */
+    protected void write(SelectionKey key) throws IOException {
+        logger.debug("Write to channel {}.", key.channel());
+        TuyaClient client = clients.get(key);
+        if (client == null) {
+            logger.error("Missing client for key {}", key);
+        } else {
+            client.writeData(key, bufferPool);
+        }
+    }
+
+    /**
+     * Free used resources when possible.
+     */
+    private void cleanUp() {
+        for (SelectionKey key : selector.keys()) {
+            this.close(key.channel());
+        }
+        close(selector);
+        clients.clear();
+    }
+
+    /**
+     * Start the loop, or restart it when it terminated.
+     *
+     * @throws IOException
+     */
+    synchronized void start() throws IOException {
+        if (!running || (mainTask != null && (mainTask.isCancelled() || mainTask.isDone()))) {
+            running = true;
+            selector = Selector.open();
+            if (executor == null || executor.isShutdown()) {
+                executor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            mainTask = executor.submit(this);
+        }
+    }
+
+    /**
+     * Stop running.
+     */
+    synchronized void stop() {
+        if (running) {
+            running = false;
+            selector.wakeup();
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(800, TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+            }
+            mainTask = null;
+        }
+    }
+
+}
@@ -25,14 +25,24 @@ public interface TcpConfig {
     public static final int DEFAULT_SERVER_PORT = 6668;
     public static final String DEFAULT_VERSION = "3.3";
     public static final int TCP_SOCKET_BUFFER_SIZE = 1024;
+    public static final int MAX_FRAME_SIZE = 16384;
+    public static final int ENCODE_BUFFER_SIZE = 1024;
+    public static final int MAX_POOLED_BUFFERS = 16;
     public static final int MAX_RETRIES = 8;
-    public static final int RETRY_DELAY = 2;
+    public static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_MAX_CONNECTS = 16;
+    public static final int RECONNECT_INITIAL_MILLIS = 500;
+    public static final int RECONNECT_MAX_MILLIS = 60000;
     public static final int HEARTBEAT_SECONDS = 15;
+    public static final int HEARTBEAT_CHECK_SECONDS = 1;
     public static final int HEARTBEAT_RETRIES = 3;
-    public static final int OUTSTANDING_HEARTBEATS_LIMIT = 3;
     public static final int WATCHDOG_CHECK_SECONDS = 30;
     public static final int DEFAULT_QUEUE_SIZE = 20;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.COALESCE;
+    public static final int MAX_IN_FLIGHT = 4;
+    public static final int RESPONSE_TIMEOUT_MILLIS = 5000;
     public static final int STATUS_REQUEST_DELAY_SECONDS = 120;
+    public static final int DEFAULT_SELECTOR_THREADS = Runtime.getRuntime().availableProcessors();
 
     /**
      * Default method to close used resources and silently ignoring IOExceptions if they occur.
@@ -14,19 +14,28 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openhab.binding.tuya.internal.data.CommandByte;
 import org.openhab.binding.tuya.internal.data.DeviceState;
 import org.openhab.binding.tuya.internal.data.Message;
 import org.openhab.binding.tuya.internal.exceptions.ParseException;
+import org.openhab.binding.tuya.internal.exceptions.QueueOverflowException;
 import org.openhab.binding.tuya.internal.exceptions.UnsupportedVersionException;
+import org.openhab.binding.tuya.internal.util.EventEmitter;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer;
+import org.openhab.binding.tuya.internal.util.HashedWheelTimer.Timeout;
 import org.openhab.binding.tuya.internal.util.MessageParser;
-import org.openhab.binding.tuya.internal.util.SingleEventEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,59 +46,107 @@ import org.slf4j.LoggerFactory;
  * @author Wim Vissers.
  *
  */
-public class TuyaClient extends SingleEventEmitter<TuyaClient.Event, Message, Boolean> implements TcpConfig {
+public class TuyaClient extends EventEmitter<TuyaClient.Event, Message, Boolean> implements TcpConfig {
 
     // The message parser is to encode/decode messages. It is dedicated to a
     // single device, since the localKey is different from device to device.
     private MessageParser messageParser;
 
-    // The sequence number of messages sent to the device.
-    private long currentSequenceNo;
+    // The decoder splitting the incoming byte stream into frames.
+    private final FrameDecoder frameDecoder;
 
-    // The queue for outgoing messages.
-    private final LinkedBlockingQueue<QueueItem> queue;
+    // The sequence number of messages sent to the device. Zero is not used, since devices use it for unsolicited
+    // status updates.
+    private long currentSequenceNo = 1;
+
+    // The queue for outgoing messages that are not sent yet.
+    private final LinkedBlockingDeque<QueueItem> queue;
+
+    // Guards changes to the queue other than taking the head, so merging into the last item is atomic.
+    private final Object queueLock = new Object();
+
+    // Count CONTROL messages merged into a queued message.
+    private final AtomicLong mergedCnt = new AtomicLong();
+
+    // What to do when the queue is full.
+    private volatile OverflowPolicy overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+
+    // Count messages rejected or dropped because the queue was full.
+    private final AtomicLong overflowCnt = new AtomicLong();
+
+    // The messages sent and waiting for a response.
+    private final InFlightWindow window;
+
+    // The number of messages with a deadline of their own not completed yet.
+    private final AtomicInteger deadlines = new AtomicInteger();
+
+    // The remainder of a frame that could not be written completely.
+    private ByteBuffer outgoing;
 
     // The selection key.
     private SelectionKey key;
 
-    // The heartbeat task.
-    private ScheduledFuture<?> heartbeat;
+    // The task checking whether a heartbeat is needed.
+    private Timeout heartbeat;
 
-    // Count heartbeats that have not been acknowledged yet.
-    private final AtomicInteger heartbeatCnt;
+    // Heartbeats are only sent when nothing was received from the device for this period.
+    private volatile long heartbeatIdleNanos = TimeUnit.SECONDS.toNanos(HEARTBEAT_SECONDS);
 
-    // Count retries when connection is reset by peer.
-    private final AtomicInteger retryCnt;
+    // The time a frame was last received, or the connection was made (System.nanoTime).
+    private volatile long lastReceivedNanos = System.nanoTime();
+
+    // The time the last heartbeat was sent, only used by the heartbeat check.
+    private long lastHeartbeatNanos;
+
+    // Count heartbeats sent.
+    private final AtomicLong heartbeatCnt = new AtomicLong();
+
+    // The state of the connection. Changed holding the connection lock.
+    private volatile ConnectionState connectionState = ConnectionState.IDLE;
+    private final Object connectionLock = new Object();
+
+    // Failed attempts to connect since the last connection, guarded by the connection lock.
+    private int attempts;
+
+    // The next attempt to connect, or the connect timeout while connecting. Guarded by the connection lock.
+    private Timeout reconnect;
+
+    // The device id, used to pin this client to a selector loop.
+    private final String gwId;
+
+    // The scheduler for short running tasks, set when started.
+    private ScheduledExecutorService scheduler;
 
     // Host and port
     private String host;
     private int port;
 
-    private boolean online;
     private final Logger logger;
 
     /**
      * Create a new TuyaClient with the given parameters.
      *
-     * @param selector the Selector servicing this client.
+     * @param gwId     the device id.
      * @param host     the Tuya host ip-address or name.
      * @param port     the port number. When -1, the default port number is used.
      * @param version  the Tuya API version.
      * @param localKey the localKey for encryption of messages.
      * @throws UnsupportedVersionException
      */
-    public TuyaClient(String host, int port, String version, String localKey) throws UnsupportedVersionException {
+    public TuyaClient(String gwId, String host, int port, String version, String localKey)
+            throws UnsupportedVersionException {
         if (!version.equals(DEFAULT_VERSION)) {
             throw new UnsupportedVersionException("Currently only version 3.3. supported");
         }
         // Create a message parser for the given version and localKey.
         messageParser = new MessageParser(version, localKey);
+        frameDecoder = new FrameDecoder();
         logger = LoggerFactory.getLogger(this.getClass());
-        this.queue = new LinkedBlockingQueue<>(DEFAULT_QUEUE_SIZE);
+        this.queue = new LinkedBlockingDeque<>(DEFAULT_QUEUE_SIZE);
+        this.window = new InFlightWindow(MAX_IN_FLIGHT);
+        this.gwId = gwId;
         this.host = host;
         this.port = port < 0 ? DEFAULT_SERVER_PORT : port;
-        heartbeatCnt = new AtomicInteger(0);
-        retryCnt = new AtomicInteger(0);
     }
 
     /**
@@ -99,88 +156,313 @@ public class TuyaClient extends SingleEventEmitter<TuyaClient.Event, Message, Bo
      * @param scheduler the scheduler.
      */
     public void start(ScheduledExecutorService scheduler) {
-        try {
-            connect();
-        } catch (IOException e) {
-            emit(Event.CONNECTION_ERROR, new Message(e.getClass().getName()));
-        }
+        this.scheduler = scheduler;
+        connect(ConnectionState.IDLE);
         if (heartbeat == null) {
-            heartbeat = scheduler.scheduleAtFixedRate(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        send(null, CommandByte.HEART_BEAT);
-                    } catch (IOException | ParseException e) {
-                    }
+            // The check is cheap and runs on the timer thread. It is jittered, so the heartbeats of all clients are
+            // spread.
+            long period = TimeUnit.SECONDS.toMillis(HEARTBEAT_CHECK_SECONDS);
+            heartbeat = HashedWheelTimer.getInstance().scheduleAtFixedRate(this::checkHeartbeat,
+                    HashedWheelTimer.jitteredDelay(period), period, TimeUnit.MILLISECONDS, null);
+        }
+    }
+
+    /**
+     * Send a heartbeat when nothing was received from the device during the idle period. Every status update or
+     * response proves the connection is alive, so an active connection needs no heartbeats. The connection is
+     * considered lost when nothing was received for HEARTBEAT_RETRIES heartbeats after the idle period.
+     */
+    private void checkHeartbeat() {
+        if (connectionState != ConnectionState.CONNECTED) {
+            return;
+        }
+        long now = System.nanoTime();
+        long idle = heartbeatIdleNanos;
+        if (now - lastReceivedNanos > idle * (HEARTBEAT_RETRIES + 1)) {
+            // Do not report again before the connection is handled.
+            lastReceivedNanos = now;
+            SelectionKey key = this.key;
+            execute(() -> {
+                emit(Event.CONNECTION_ERROR, new Message("no response to heartbeat"));
+                handleDisconnect(key, new IOException("No response to heartbeat"));
+            });
+        } else if (now - lastHeartbeatNanos >= idle && now - lastReceivedNanos >= idle) {
+            lastHeartbeatNanos = now;
+            execute(() -> {
+                try {
+                    send(null, CommandByte.HEART_BEAT);
+                } catch (IOException | ParseException e) {
                 }
-            }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+            });
         }
     }
 
+    private void execute(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Scheduler rejected task, client not running.");
+        }
+    }
+
+    /**
+     * Return true when messages are waiting to be sent.
+     *
+     * @return true when the queue is not empty.
+     */
+    boolean hasPendingMessages() {
+        return !queue.isEmpty();
+    }
+
     /**
      * Stop the client.
      */
     @Override
     public void stop() {
-        online = false;
+        SelectionKey key;
+        synchronized (connectionLock) {
+            connectionState = ConnectionState.STOPPED;
+            cancelReconnect();
+            key = this.key;
+            this.key = null;
+        }
+        TuyaClientService.getInstance().releaseConnect(this);
         if (key != null) {
             close(key.channel());
             key.cancel();
         }
         if (heartbeat != null) {
-            heartbeat.cancel(false);
+            heartbeat.cancel();
             heartbeat = null;
         }
+        // Nobody will answer the messages not sent or answered yet.
+        IOException stopped = new IOException("Client stopped");
+        synchronized (queueLock) {
+            for (QueueItem item = queue.poll(); item != null; item = queue.poll()) {
+                item.getFuture().completeExceptionally(stopped);
+            }
+        }
+        window.drain().forEach(item -> item.getFuture().completeExceptionally(stopped));
         super.stop();
     }
 
     /**
-     * Connect the client and register to the client service.
+     * Request the client service to connect, when in the expected state. The connect starts when the service admits
+     * it.
+     *
+     * @param expected the state the client must be in.
+     */
+    private void connect(ConnectionState expected) {
+        synchronized (connectionLock) {
+            if (connectionState != expected) {
+                return;
+            }
+            connectionState = ConnectionState.CONNECTING;
+            cancelReconnect();
+        }
+        TuyaClientService.getInstance().requestConnect(this);
+    }
+
+    /**
+     * Called by the service when the client may connect. The connect runs on the scheduler.
+     */
+    void admitted() {
+        if (scheduler == null) {
+            openConnection();
+        } else {
+            execute(this::openConnection);
+        }
+    }
+
+    /**
+     * Connect and register to the client service. A connection that is not established in time is abandoned. A
+     * failure is handled like a lost connection.
+     */
+    private void openConnection() {
+        if (connectionState != ConnectionState.CONNECTING) {
+            // Stopped meanwhile.
+            TuyaClientService.getInstance().releaseConnect(this);
+            return;
+        }
+        // Bytes of a previous connection are meaningless for the new one.
+        frameDecoder.reset();
+        SelectionKey key;
+        try {
+            key = TuyaClientService.getInstance().register(this, host, port);
+        } catch (IOException e) {
+            handleDisconnect(null, e);
+            return;
+        }
+        synchronized (connectionLock) {
+            if (connectionState == ConnectionState.CONNECTING) {
+                this.key = key;
+                reconnect = HashedWheelTimer.getInstance().schedule(() -> connectTimeout(key), CONNECT_TIMEOUT_MILLIS,
+                        TimeUnit.MILLISECONDS, scheduler);
+            }
+        }
+    }
+
+    private void connectTimeout(SelectionKey key) {
+        synchronized (connectionLock) {
+            if (connectionState != ConnectionState.CONNECTING || this.key != key) {
+                return;
+            }
+        }
+        handleDisconnect(key, new IOException("Connect timeout"));
+    }
+
+    /**
+     * Connect now when waiting for the next attempt, e.g. because the device was seen on the network.
+     */
+    public void reconnectNow() {
+        connect(ConnectionState.BACKOFF);
+    }
+
+    /**
+     * Return the delay before the given attempt to connect. The delay doubles with every attempt up to a maximum. Half
+     * of it is random, so devices that lost their connection at the same time, e.g. by a reboot of the access point,
+     * do not all reconnect at the same time.
      *
-     * @throws IOException
+     * @param attempt the attempt, 1 for the first after losing the connection.
+     * @return the delay in milliseconds.
      */
-    public void connect() throws IOException {
-        key = TuyaClientService.getInstance().register(this, host, port);
-        heartbeatCnt.set(0);
+    private static long backoffMillis(int attempt) {
+        long delay = Math.min(RECONNECT_MAX_MILLIS, (long) RECONNECT_INITIAL_MILLIS << Math.min(attempt - 1, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Cancel the next attempt or connect timeout. Must be called holding the connection lock.
+     */
+    private void cancelReconnect() {
+        if (reconnect != null) {
+            reconnect.cancel();
+            reconnect = null;
+        }
     }
 
     /**
      * Send a message. If the device responds, the response will be emitted as a new event.
      *
      * @param item the item to send.
-     * @throws IOException
+     * @throws IOException when the device is unreachable.
      * @throws ParseException
      */
     private void send(QueueItem item) throws IOException, ParseException {
-        if (!online || key == null) {
-            if (key != null) {
-                close(key.channel());
-            }
-            connect();
+        switch (connectionState) {
+            case IDLE:
+                connect(ConnectionState.IDLE);
+                break;
+            case BACKOFF:
+                if (isUnreachable()) {
+                    // Do not keep commands for a device that may be away for a long time. Callers not waiting for the
+                    // future learn it from the exception.
+                    IOException unreachable = new IOException("Device unreachable");
+                    item.getFuture().completeExceptionally(unreachable);
+                    throw unreachable;
+                }
+                // Queued until connected.
+                break;
+            default:
+                break;
         }
         CommandByte command = item.getCommandByte();
-        if (command.equals(CommandByte.HEART_BEAT) && queue.remainingCapacity() < DEFAULT_QUEUE_SIZE / 2) {
-            heartbeatCnt.set(OUTSTANDING_HEARTBEATS_LIMIT);
-            logger.debug("Skipping heartbeat since outstanding heartbeat > {}.", OUTSTANDING_HEARTBEATS_LIMIT);
-        } else if (queue.remainingCapacity() == 0) {
-            if (online) {
-                online = false;
-                emit(Event.CONNECTION_ERROR, new Message("send queue overflow"));
-            }
+        if (command.equals(CommandByte.HEART_BEAT) && (!queue.isEmpty() || window.size() > 0)) {
+            // The responses to the messages waiting prove the connection is alive.
+            logger.debug("Skipping heartbeat since messages are waiting for a response.");
+            item.getFuture().cancel(false);
+        } else if (mergeQueued(item)) {
+            requestWrite();
         } else {
-            // Remove conflicting items from the queue.
-            queue.removeIf(qi -> {
-                return qi.isConflicting(item);
-            });
-            queue.offer(item);
+            boolean queued;
+            synchronized (queueLock) {
+                // Remove conflicting items from the queue, they are answered by the new item.
+                queue.removeIf(qi -> {
+                    if (qi.isConflicting(item)) {
+                        qi.completeWith(item);
+                        return true;
+                    }
+                    return false;
+                });
+                queued = queue.offer(item) || handleOverflow(item);
+            }
+            if (!queued) {
+                // The device is busy, not offline, so only this message fails.
+                overflowCnt.incrementAndGet();
+                logger.debug("Send queue full, {} message rejected.", command);
+                item.getFuture().completeExceptionally(new QueueOverflowException("Send queue full"));
+                return;
+            }
             if (command.equals(CommandByte.HEART_BEAT)) {
-                if (heartbeatCnt.incrementAndGet() > HEARTBEAT_RETRIES) {
-                    online = false;
-                    emit(Event.CONNECTION_ERROR, new Message("no response to heartbeat"));
+                heartbeatCnt.incrementAndGet();
+            }
+            requestWrite();
+        }
+    }
+
+    /**
+     * Make room for an item when the queue is full, according to the overflow policy. Must be called holding the
+     * queue lock.
+     *
+     * @param item the item to send.
+     * @return true when the item is queued or answered by a queued item, false when it is rejected.
+     */
+    private boolean handleOverflow(QueueItem item) {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                QueueItem oldest = queue.poll();
+                if (oldest != null) {
+                    overflowCnt.incrementAndGet();
+                    logger.debug("Send queue full, oldest {} message dropped.", oldest.getCommandByte());
+                    oldest.getFuture().completeExceptionally(new QueueOverflowException("Dropped from full queue"));
                 }
+                return queue.offer(item);
+            case COALESCE:
+                // Merge into the newest mergeable item and keep it in its place, so the value set last for a data
+                // point still wins. The items are taken out to replace it, items taken for sending meanwhile are
+                // simply not in the list.
+                List<QueueItem> items = new ArrayList<>(queue.size());
+                queue.drainTo(items);
+                boolean handled = false;
+                for (int i = items.size() - 1; i >= 0 && !handled; i--) {
+                    QueueItem queued = items.get(i);
+                    if (queued.isMergeable(item)) {
+                        items.set(i, queued.merge(item));
+                        mergedCnt.incrementAndGet();
+                        handled = true;
+                    } else if (queued.isDuplicate(item)) {
+                        item.completeWith(queued);
+                        handled = true;
+                    }
+                }
+                for (QueueItem queued : items) {
+                    queue.offer(queued);
+                }
+                return handled;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Merge a CONTROL item into the last queued item, when that is a CONTROL item that has not been sent yet. The data
+     * points of both are sent in a single message then, e.g. when a rule sets power, brightness and color temperature
+     * of a lamp.
+     *
+     * @param item the item to send.
+     * @return true when merged, false when the item must be queued.
+     */
+    private boolean mergeQueued(QueueItem item) {
+        synchronized (queueLock) {
+            QueueItem last = queue.peekLast();
+            // The last item may have been taken for sending in the meantime.
+            if (last == null || !last.isMergeable(item) || !queue.removeLastOccurrence(last)) {
+                return false;
             }
-            key.interestOps(OP_WRITE);
+            queue.offerLast(last.merge(item));
         }
+        mergedCnt.incrementAndGet();
+        return true;
     }
 
     /**
@@ -188,22 +470,85 @@ public class TuyaClient extends SingleEventEmitter<TuyaClient.Event, Message, Bo
      *
      * @param deviceState the deviceState object that will be transformed to a json string.
      * @param command     the commandbyte enum constant.
-     * @throws IOException
+     * @throws IOException when the device is unreachable, i.e. connecting failed MAX_RETRIES times.
      * @throws ParseException
      */
     public void send(DeviceState deviceState, CommandByte command) throws IOException, ParseException {
         send(new QueueItem(deviceState, command));
     }
 
+    /**
+     * Send a message without waiting for anything, e.g. to send commands to several devices at once and await all
+     * responses. The future completes with the response of the device. It completes exceptionally when the message
+     * cannot be sent, is rejected or dropped because the send queue is full, or is not answered in time.
+     *
+     * The future is completed on a selector thread, so use the async methods of the future for lengthy work.
+     *
+     * @param deviceState the deviceState object that will be transformed to a json string.
+     * @param command     the commandbyte enum constant.
+     * @return the future response.
+     */
+    public CompletableFuture<Message> sendAsync(DeviceState deviceState, CommandByte command) {
+        QueueItem item = new QueueItem(deviceState, command);
+        try {
+            send(item);
+        } catch (IOException | ParseException e) {
+            item.getFuture().completeExceptionally(e);
+        }
+        return item.getFuture();
+    }
+
+    /**
+     * Send a message without waiting for anything, with a deadline for the response. When the device has not answered
+     * before the deadline, the message is removed from the queue if it has not been sent yet, and the future completes
+     * exceptionally with a TimeoutException. The deadline expires the message like the default response timeout does,
+     * on the scheduler of the client, so callbacks of the future never run on the shared timer thread.
+     *
+     * @param deviceState   the deviceState object that will be transformed to a json string.
+     * @param command       the commandbyte enum constant.
+     * @param timeoutMillis the time in milliseconds the device has to answer, counted from now.
+     * @return the future response.
+     */
+    public CompletableFuture<Message> sendAsync(DeviceState deviceState, CommandByte command, long timeoutMillis) {
+        QueueItem item = new QueueItem(deviceState, command);
+        item.setTimeout(timeoutMillis);
+        deadlines.incrementAndGet();
+        // The timer may fire up to a tick early, the message expires at its deadline anyway.
+        Timeout deadline = HashedWheelTimer.getInstance().schedule(
+                () -> checkTimeouts(Math.max(System.nanoTime(), item.getDeadlineNanos())), timeoutMillis,
+                TimeUnit.MILLISECONDS, scheduler);
+        item.getFuture().whenComplete((message, e) -> {
+            deadline.cancel();
+            deadlines.decrementAndGet();
+        });
+        try {
+            send(item);
+        } catch (IOException | ParseException e) {
+            item.getFuture().completeExceptionally(e);
+        }
+        return item.getFuture();
+    }
+
     /**
      * Called by the service when connected.
      *
      * @param key the selection key.
      */
     void handleConnect(SelectionKey key) {
-        this.key = key;
-        online = true;
-        retryCnt.set(0);
+        synchronized (connectionLock) {
+            if (connectionState != ConnectionState.CONNECTING) {
+                // Stopped or timed out meanwhile.
+                close(key.channel());
+                key.cancel();
+                return;
+            }
+            this.key = key;
+            connectionState = ConnectionState.CONNECTED;
+            attempts = 0;
+            cancelReconnect();
+        }
+        TuyaClientService.getInstance().releaseConnect(this);
+        lastReceivedNanos = System.nanoTime();
         emit(Event.CONNECTED, null);
     }
 
@@ -218,54 +563,205 @@ public class TuyaClient extends SingleEventEmitter<TuyaClient.Event, Message, Bo
         if (key != null) {
             close(key.channel());
             key.cancel();
+        }
+        int attempt;
+        long delay;
+        synchronized (connectionLock) {
+            if (connectionState == ConnectionState.STOPPED || connectionState == ConnectionState.BACKOFF
+                    || (key != null && this.key != null && key != this.key)) {
+                // Stopped, handled already, or a previous connection.
+                return;
+            }
             this.key = null;
+            connectionState = ConnectionState.BACKOFF;
+            attempt = ++attempts;
+            delay = backoffMillis(attempt);
+            // The attempt runs on the scheduler, not on the selector thread.
+            reconnect = HashedWheelTimer.getInstance().schedule(() -> connect(ConnectionState.BACKOFF), delay,
+                    TimeUnit.MILLISECONDS, scheduler);
         }
-        online = false;
+        TuyaClientService.getInstance().releaseConnect(this);
+        outgoing = null;
+        requeueInFlight();
+        logger.debug("Connect attempt {} in {} ms.", attempt, delay);
         if (ex == null) {
             emit(Event.DISCONNECTED, null);
-        } else {
-            if (retryCnt.addAndGet(1) < MAX_RETRIES) {
-                logger.debug("Connection error in retry window.");
-                emit(Event.CONNECTION_ERROR_WITHIN_RETRY, new Message(ex.getMessage()));
-                try {
-                    // Wait a short time between retries
-                    Thread.sleep(RETRY_DELAY);
-                    send(queue.poll());
-                } catch (IOException | ParseException | InterruptedException e) {
+        } else if (attempt < MAX_RETRIES) {
+            emit(Event.CONNECTION_ERROR_WITHIN_RETRY, new Message(ex.getMessage()));
+        } else if (attempt == MAX_RETRIES) {
+            // Give up on the queued messages, the device may be away for a long time. Attempts continue at the
+            // maximum interval.
+            int cancelled = 0;
+            synchronized (queueLock) {
+                for (QueueItem item = queue.poll(); item != null; item = queue.poll()) {
+                    item.getFuture().completeExceptionally(ex);
+                    cancelled++;
                 }
+            }
+            if (cancelled > 0) {
+                logger.warn("Connection error exceeds retries, {} queued requests cancelled.", cancelled);
             } else {
-                // Remove the message from the queue after max retries.
-                logger.debug("Connection error exceeds retries, cancel request.");
-                retryCnt.set(0);
-                queue.poll();
-                emit(Event.CONNECTION_ERROR, new Message(ex.getMessage()));
+                logger.debug("Connection error exceeds retries.");
             }
+            emit(Event.CONNECTION_ERROR, new Message(ex.getMessage()));
         }
     }
 
     /**
-     * Called by the service when data arrived.
+     * Return true when the attempts to connect failed MAX_RETRIES times.
      *
-     * @param key  the selection key.
-     * @param data the raw data bytes.
+     * @return true when unreachable.
+     */
+    private boolean isUnreachable() {
+        synchronized (connectionLock) {
+            return connectionState != ConnectionState.CONNECTED && attempts >= MAX_RETRIES;
+        }
+    }
+
+    /**
+     * Put the messages that were not answered before the connection was lost back in front of the queue, in their
+     * original order. Heartbeats are dropped, a new connection does not need them.
      */
-    void handleData(SelectionKey key, byte[] data) {
-        logger.debug("Incoming message from {} with data {}", key, data);
+    private void requeueInFlight() {
+        List<QueueItem> items = window.drain();
+        synchronized (queueLock) {
+            for (int i = items.size() - 1; i >= 0; i--) {
+                QueueItem item = items.get(i);
+                if (item.getCommandByte() == CommandByte.HEART_BEAT) {
+                    item.getFuture().cancel(false);
+                } else if (!queue.offerFirst(item)) {
+                    logger.debug("Queue full, dropping unanswered {} message.", item.getCommandByte());
+                    item.getFuture().completeExceptionally(new QueueOverflowException("Dropped from full queue"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the frame decoder for the connection of this client.
+     *
+     * @return the frame decoder.
+     */
+    FrameDecoder getFrameDecoder() {
+        return frameDecoder;
+    }
+
+    /**
+     * Called by the service for every complete frame that arrived.
+     *
+     * @param key   the selection key.
+     * @param frame the buffer holding a single frame between its position and limit.
+     */
+    void handleData(SelectionKey key, ByteBuffer frame) {
+        logger.debug("Incoming frame from {} with {} bytes", key, frame.remaining());
         try {
-            Message message = messageParser.decode(data);
-            if (message.getCommandByte().equals(CommandByte.HEART_BEAT)) {
-                if (heartbeatCnt.intValue() > 0) {
-                    heartbeatCnt.decrementAndGet();
+            lastReceivedNanos = System.nanoTime();
+            Message message = messageParser.decode(frame);
+            QueueItem item = window.acknowledge(message.getSequenceNumber(), message.getCommandByte(),
+                    System.nanoTime());
+            if (item != null) {
+                logger.debug("Response to {} message {} after {} ms.", item.getCommandByte(), item.getSequenceNo(),
+                        (System.nanoTime() - item.getSentNanos()) / 1000000);
+                if (!queue.isEmpty()) {
+                    requestWrite();
+                }
+            }
+            try {
+                emit(Event.MESSAGE_RECEIVED, message);
+            } catch (RuntimeException e) {
+                logger.error("Error handling message received.", e);
+            } finally {
+                // The item has left the window, nothing else would complete its future.
+                if (item != null) {
+                    item.getFuture().complete(message);
                 }
             }
-            emit(Event.MESSAGE_RECEIVED, message);
         } catch (ParseException e) {
             logger.error("Invalid message received.", e);
         }
-        queue.poll();
-        if (!queue.isEmpty() && key != null) {
-            key.interestOps(OP_WRITE);
+    }
+
+    /**
+     * Called by the service on a regular basis, and at the deadline of a message sent with sendAsync, to expire
+     * messages that have not been answered in time, so they do not block the window. Messages with a deadline that
+     * are still queued are not sent anymore.
+     *
+     * @param now the current time (System.nanoTime).
+     */
+    void checkTimeouts(long now) {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(RESPONSE_TIMEOUT_MILLIS);
+        List<QueueItem> expired = window.expire(now, timeoutNanos);
+        if (expired != null) {
+            expired.forEach(this::timedOut);
+            if (!queue.isEmpty()) {
+                requestWrite();
+            }
+        }
+        if (deadlines.get() > 0) {
+            List<QueueItem> queued = new ArrayList<>();
+            synchronized (queueLock) {
+                queue.removeIf(item -> item.hasDeadline() && item.isExpired(now, timeoutNanos) && queued.add(item));
+            }
+            queued.forEach(this::timedOut);
+        }
+    }
+
+    /**
+     * Complete a message that was not answered in time. The future is completed on the scheduler, so its callbacks do
+     * not delay the selector or timer thread.
+     *
+     * @param item the message.
+     */
+    private void timedOut(QueueItem item) {
+        long timeoutMillis = item.getTimeoutMillis(RESPONSE_TIMEOUT_MILLIS);
+        logger.debug("No response to {} message {} within {} ms.", item.getCommandByte(), item.getSequenceNo(),
+                timeoutMillis);
+        TimeoutException timeout = new TimeoutException("No response within " + timeoutMillis + " ms");
+        ScheduledExecutorService executor = scheduler;
+        if (executor != null) {
+            try {
+                executor.execute(() -> item.getFuture().completeExceptionally(timeout));
+                return;
+            } catch (RejectedExecutionException e) {
+                // Shutting down, complete it here.
+            }
         }
+        item.getFuture().completeExceptionally(timeout);
+    }
+
+    /**
+     * Return the next sequence number, skipping zero on wrap around.
+     *
+     * @return the sequence number.
+     */
+    private long nextSequenceNo() {
+        long sequenceNo = currentSequenceNo;
+        currentSequenceNo = (currentSequenceNo + 1) & 0xFFFFFFFFL;
+        if (currentSequenceNo == 0) {
+            currentSequenceNo = 1;
+        }
+        return sequenceNo;
+    }
+
+    /**
+     * Register interest in writing, and wake up the selector since this may be called from outside the selector
+     * thread.
+     */
+    private void requestWrite() {
+        SelectionKey key = this.key;
+        if (key != null && key.isValid() && connectionState == ConnectionState.CONNECTED) {
+            key.interestOps(OP_READ | OP_WRITE);
+            key.selector().wakeup();
+        }
+    }
+
+    /**
+     * Return the device id.
+     *
+     * @return the gwId.
+     */
+    public String getGwId() {
+        return gwId;
     }
 
     /**
@@ -274,31 +770,158 @@ public class TuyaClient extends SingleEventEmitter<TuyaClient.Event, Message, Bo
      * @return
      */
     public boolean isOnline() {
-        return online;
+        return connectionState == ConnectionState.CONNECTED;
+    }
+
+    public ConnectionState getConnectionState() {
+        return connectionState;
     }
 
     /**
-     * Called by the service when ready for writing.
+     * Return the number of messages answered by the device.
      *
-     * @param key the selection key.
+     * @return the number of messages.
+     */
+    public long getAcknowledgedCount() {
+        return window.getAcknowledged();
+    }
+
+    /**
+     * Return the number of messages that were not answered within the timeout.
+     *
+     * @return the number of messages.
+     */
+    public long getTimeoutCount() {
+        return window.getTimedOut();
+    }
+
+    /**
+     * Set what to do with a message when the send queue is full.
+     *
+     * @param overflowPolicy the policy.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy == null ? DEFAULT_OVERFLOW_POLICY : overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Set the period without any frame from the device after which heartbeats are sent.
+     *
+     * @param seconds the period in seconds.
+     */
+    public void setHeartbeatIdleSeconds(int seconds) {
+        heartbeatIdleNanos = TimeUnit.SECONDS.toNanos(seconds > 0 ? seconds : HEARTBEAT_SECONDS);
+    }
+
+    /**
+     * Return the number of heartbeats sent.
+     *
+     * @return the number of heartbeats.
+     */
+    public long getHeartbeatCount() {
+        return heartbeatCnt.get();
+    }
+
+    /**
+     * Return the number of messages rejected or dropped because the send queue was full.
+     *
+     * @return the number of messages.
+     */
+    public long getOverflowCount() {
+        return overflowCnt.get();
+    }
+
+    /**
+     * Return the number of CONTROL messages merged into a queued message.
+     *
+     * @return the number of messages.
+     */
+    public long getMergedCount() {
+        return mergedCnt.get();
+    }
+
+    /**
+     * Return the average response time of the device.
+     *
+     * @return the response time in milliseconds.
+     */
+    public double getAverageLatencyMillis() {
+        return window.getAverageLatencyMillis();
+    }
+
+    /**
+     * Called by the service when ready for writing. Messages are sent as long as the window allows more messages
+     * waiting for a response. The frames are encoded into buffers from the pool, which are returned as soon as they
+     * are written completely.
+     *
+     * @param key  the selection key.
+     * @param pool the buffer pool of the calling selector loop.
      */
-    void writeData(SelectionKey key) {
+    void writeData(SelectionKey key, BufferPool pool) {
         logger.debug("Write data requested for channel {}.", key.channel());
         SocketChannel channel = (SocketChannel) key.channel();
         try {
-            if (!queue.isEmpty()) {
-                // Use peek to leave the message in the queue.
-                channel.write(ByteBuffer.wrap(queue.peek().encode(messageParser, currentSequenceNo++)));
+            if (outgoing != null) {
+                channel.write(outgoing);
+                if (outgoing.hasRemaining()) {
+                    return;
+                }
+                pool.release(outgoing);
+                outgoing = null;
+            }
+            while (window.hasRoom()) {
+                QueueItem item = queue.poll();
+                if (item == null) {
+                    break;
+                }
+                long sequenceNo = nextSequenceNo();
+                ByteBuffer frame = encode(item, sequenceNo, pool);
+                item.markSent(sequenceNo, System.nanoTime());
+                window.add(item);
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    // Socket buffer full, continue when writable again.
+                    outgoing = frame;
+                    return;
+                }
+                pool.release(frame);
             }
         } catch (IOException e) {
             logger.debug("Exception in writeData.", e);
-            if (retryCnt.addAndGet(1) >= MAX_RETRIES) {
-                queue.poll();
-                retryCnt.set(0);
-            }
+            handleDisconnect(key, e);
             return;
         }
         key.interestOps(OP_READ);
+        // A message may have been queued after the queue was found empty.
+        if (!queue.isEmpty() && window.hasRoom()) {
+            key.interestOps(OP_READ | OP_WRITE);
+        }
+    }
+
+    /**
+     * Encode the item into a pooled buffer. Messages too large for the pooled buffers are encoded into a new array.
+     *
+     * @param item       the item to encode.
+     * @param sequenceNo the sequence number.
+     * @param pool       the buffer pool.
+     * @return the frame between position and limit.
+     */
+    private ByteBuffer encode(QueueItem item, long sequenceNo, BufferPool pool) {
+        ByteBuffer frame = pool.acquire();
+        ByteBuffer scratch = pool.acquire();
+        boolean encoded = item.encode(messageParser, sequenceNo, scratch, frame);
+        pool.release(scratch);
+        if (encoded) {
+            frame.flip();
+            return frame;
+        }
+        pool.release(frame);
+        logger.debug("{} message does not fit in {} bytes.", item.getCommandByte(), pool.getBufferSize());
+        return ByteBuffer.wrap(item.encode(messageParser, sequenceNo));
     }
 
     public enum Event {
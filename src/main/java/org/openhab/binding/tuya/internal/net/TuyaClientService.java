@@ -8,23 +8,13 @@
  */
 package org.openhab.binding.tuya.internal.net;
 
-import static java.lang.System.arraycopy;
 import static java.nio.channels.SelectionKey.*;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 
-import org.openhab.binding.tuya.internal.exceptions.NoDataException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,28 +22,29 @@ import org.slf4j.LoggerFactory;
  * This singleton is responsible for creating and servicing TCP client for Tuya devices. It has a factory method to
  * create new clients.
  *
+ * The connections are serviced by a pool of selector loops, each running on its own thread. A client is pinned to a
+ * loop by the hash of its gwId, so all events of a device are handled by the same thread, while a slow device only
+ * delays the devices sharing its loop.
+ *
  * @author Wim Vissers.
  *
  */
-public class TuyaClientService implements Runnable, TcpConfig {
+public class TuyaClientService implements TcpConfig {
 
     // Create and store the singleton implementation.
     private static final TuyaClientService INSTANCE = new TuyaClientService();
 
-    private final ExecutorService executor;
-    private Selector selector;
+    // The pool of selector loops.
+    private SelectorLoop[] loops;
+
+    // The requested number of selector loops.
+    private int selectorCount;
 
     // Service status.
     private boolean running;
 
-    // The main task Future.
-    private Future<?> mainTask;
-
-    // Buffer to receive data.
-    private ByteBuffer buffer = ByteBuffer.allocate(TCP_SOCKET_BUFFER_SIZE);
-
-    // Table containing the clients. The Selection keys attachment are not suitable.
-    private ConcurrentHashMap<SelectionKey, TuyaClient> clients = new ConcurrentHashMap<>();
+    // Limits the connects in progress.
+    private final ConnectScheduler connectScheduler = new ConnectScheduler();
 
     private final Logger logger;
 
@@ -62,7 +53,7 @@ public class TuyaClientService implements Runnable, TcpConfig {
      */
     private TuyaClientService() {
         logger = LoggerFactory.getLogger(this.getClass());
-        executor = Executors.newSingleThreadExecutor();
+        selectorCount = DEFAULT_SELECTOR_THREADS;
     }
 
     /**
@@ -75,205 +66,113 @@ public class TuyaClientService implements Runnable, TcpConfig {
     }
 
     /**
-     * Create a SelectionKey for the given client, and register the client to be serviced.
+     * Set the number of selector loops. The new value is used the next time the service is started.
      *
-     * @param client the TuyaClient.
-     * @param host   the host (name or ip address).
-     * @param port   the TCP port.
-     * @return the SelectionKey for this client.
-     * @throws IOException when something goes wrong.
+     * @param selectorCount the number of loops, values below 1 select the default (number of processors).
      */
-    public SelectionKey register(TuyaClient client, String host, int port) throws IOException {
-        // Open a channel
-        SocketChannel channel = SocketChannel.open();
-        channel.configureBlocking(false);
-        channel.connect(new InetSocketAddress(host, port < 0 ? DEFAULT_SERVER_PORT : port));
-
-        // Register client
-        SelectionKey key = channel.register(selector, OP_CONNECT);
-        clients.put(key, client);
-        start();
-        return key;
+    public synchronized void setSelectorCount(int selectorCount) {
+        this.selectorCount = selectorCount < 1 ? DEFAULT_SELECTOR_THREADS : selectorCount;
+        if (loops != null && loops.length != this.selectorCount) {
+            logger.info("Number of selector threads changed to {}, effective after restart of the binding.",
+                    this.selectorCount);
+        }
     }
 
     /**
-     * Remove keys that are cancelled.
+     * Set the maximum number of connects in progress at the same time.
+     *
+     * @param maxConnects the maximum, values below 1 select the default.
      */
-    private void cleanClientsMap() {
-        clients.keySet().forEach(key -> {
-            if (!key.isValid()) {
-                close(key.channel());
-                clients.remove(key);
-            }
-        });
+    public void setMaxConnects(int maxConnects) {
+        connectScheduler.setMaxConnects(maxConnects);
     }
 
     /**
-     * The main loop services incoming data for all created clients.
+     * Request to connect a client. The client is admitted when the number of connects in progress allows it.
+     *
+     * @param client the client.
      */
-    @Override
-    public void run() {
-        while (running) {
-            try {
-                selector.select(SELECTOR_TIMEOUT_MILLIS);
-
-                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
-                while (iterator.hasNext()) {
-                    SelectionKey key = iterator.next();
-                    iterator.remove();
-
-                    if (!key.isValid()) {
-                        continue;
-                    }
-
-                    if (key.isConnectable()) {
-                        connect(key);
-                    } else if (key.isReadable()) {
-                        read(key);
-                    } else if (key.isWritable()) {
-                        write(key);
-                    }
-                }
-                cleanClientsMap();
-            } catch (IOException e) {
-                logger.error("IOException servicing Tuya client", e);
-            }
-
-        }
-        cleanUp();
+    void requestConnect(TuyaClient client) {
+        connectScheduler.request(client);
     }
 
     /**
-     * Handle connect request.
+     * Release the connect of a client when it is done, or cancel its request.
      *
-     * @param key the SelectionKey.
-     * @throws IOException
+     * @param client the client.
      */
-    protected void connect(SelectionKey key) throws IOException {
-        SocketChannel channel = (SocketChannel) key.channel();
-        TuyaClient client = clients.get(key);
-        try {
-            logger.debug("Connecting {}.", client);
-            channel.finishConnect();
-            channel.configureBlocking(false);
-            channel.register(selector, OP_WRITE);
-            client.handleConnect(key);
-        } catch (IOException e) {
-            logger.debug("Error connecting {}.", client);
-            key.channel().close();
-            key.cancel();
-            if (client != null) {
-                client.handleDisconnect(key, e);
-            }
-        }
+    void releaseConnect(TuyaClient client) {
+        connectScheduler.release(client);
     }
 
     /**
-     * Handle read request.
+     * Create a SelectionKey for the given client, and register the client to be serviced.
      *
-     * @param key the SelectionKey.
-     * @throws IOException
+     * @param client the TuyaClient.
+     * @param host   the host (name or ip address).
+     * @param port   the TCP port.
+     * @return the SelectionKey for this client.
+     * @throws IOException when something goes wrong.
      */
-    protected void read(SelectionKey key) throws IOException {
-        if (key == null) {
-            logger.debug("No key: read cancelled.");
-            return;
-        }
-        SocketChannel channel = (SocketChannel) key.channel();
-        TuyaClient client = clients.get(key);
-        if (client == null) {
-            logger.error("No client for key {}.", key);
-        }
-
-        logger.debug("Read from channel {}.", channel);
-        int readCount;
-        buffer.clear();
-
-        try {
-            readCount = channel.read(buffer);
-        } catch (IOException e) {
-            key.cancel();
-            channel.close();
-            if (client != null) {
-                client.handleDisconnect(key, e);
-            }
-            return;
+    public SelectionKey register(TuyaClient client, String host, int port) throws IOException {
+        SelectorLoop loop;
+        synchronized (this) {
+            start();
+            loop = loopFor(client);
         }
 
-        if (readCount == -1) {
-            // Channel is no longer active - clean up
-            key.channel().close();
-            key.cancel();
-            if (client != null) {
-                client.handleDisconnect(key, new NoDataException());
-            }
-            return;
-        }
+        // Open a channel
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(new InetSocketAddress(host, port < 0 ? DEFAULT_SERVER_PORT : port));
 
-        if (client != null) {
-            byte[] data = new byte[buffer.position()];
-            arraycopy(buffer.array(), 0, data, 0, buffer.position());
-            client.handleData(key, data);
-        }
+        // Register client
+        return loop.register(channel, OP_CONNECT, client);
     }
 
     /**
-     * Handle write request.
+     * Return the loop servicing the given client.
      *
-     * @param key the SelectionKey.
-     * @throws IOException
+     * @param client the client.
+     * @return the loop.
      */
-    protected void write(SelectionKey key) throws IOException {
-        logger.debug("Write to channel {}.", key.channel());
-        TuyaClient client = clients.get(key);
-        if (client == null) {
-            logger.error("Missing client for key {}", key);
-        } else {
-            client.writeData(key);
-        }
+    private SelectorLoop loopFor(TuyaClient client) {
+        String gwId = client.getGwId();
+        int hash = gwId == null ? System.identityHashCode(client) : gwId.hashCode();
+        return loops[Math.floorMod(hash, loops.length)];
     }
 
     /**
-     * Free used resources when possible.
-     */
-    private void cleanUp() {
-        for (SelectionKey key : selector.keys()) {
-            this.close(key.channel());
-        }
-        close(selector);
-        if (mainTask != null) {
-            mainTask.cancel(true);
-            mainTask = null;
-        }
-    }
-
-    /**
-     * Start the main loop.
+     * Start the selector loops.
      *
      * @throws IOException
      */
-    public void start() throws IOException {
-        if (!running || (mainTask != null && (mainTask.isCancelled() || mainTask.isDone()))) {
-            running = true;
-            selector = Selector.open();
-            mainTask = executor.submit(this);
+    public synchronized void start() throws IOException {
+        if (loops == null) {
+            loops = new SelectorLoop[selectorCount];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new SelectorLoop("tuya-selector-" + i);
+            }
+            logger.debug("Created {} selector loops.", loops.length);
+        }
+        running = true;
+        // Also restarts loops that terminated unexpectedly.
+        for (SelectorLoop loop : loops) {
+            loop.start();
         }
     }
 
     /**
      * Stop running.
      */
-    public void stop() {
+    public synchronized void stop() {
         if (running) {
             running = false;
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(800, TimeUnit.MILLISECONDS)) {
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
+            for (SelectorLoop loop : loops) {
+                loop.stop();
             }
+            // Apply a changed pool size on the next start.
+            loops = null;
         }
     }
 
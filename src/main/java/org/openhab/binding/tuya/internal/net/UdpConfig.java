@@ -16,11 +16,13 @@ package org.openhab.binding.tuya.internal.net;
  */
 public interface UdpConfig {
 
-    // Setting for UDP broadcast listener (currently only encrypted implemented).
+    // Setting for UDP broadcast listener, older firmware broadcasts plain json on the unencrypted port.
     public static final int DEFAULT_UNECRYPTED_UDP_PORT = 6666;
     public static final int DEFAULT_ECRYPTED_UDP_PORT = 6667;
     public static final int UDP_SOCKET_TIMEOUT = 60000;
     public static final int UDP_SOCKET_BUFFER_SIZE = 1024;
+    public static final int UDP_RECEIVE_BUFFER_SIZE = 65536;
+    public static final int UDP_RETRY_SECONDS = 10;
 
     // The default key to decrypt UDP broadcast messages.
     public static final String DEFAULT_UDP_KEY = "yGAdlopoPVldABfn";
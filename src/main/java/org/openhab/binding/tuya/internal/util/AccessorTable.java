@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.smarthome.core.types.State;
+import org.openhab.binding.tuya.internal.annotations.Channel;
+import org.openhab.binding.tuya.internal.annotations.Property;
+
+/**
+ * The annotated getters of a class, looked up once per class and cached. The getters are invoked through method
+ * handles, so walking the channels of a device state or the properties of a device descriptor does not need any
+ * reflection after the first time.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public final class AccessorTable {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    // Getters annotated with @Channel returning a State.
+    private static final ClassValue<List<Accessor>> CHANNELS = new ClassValue<List<Accessor>>() {
+        @Override
+        protected List<Accessor> computeValue(Class<?> type) {
+            List<Accessor> result = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            for (Method method : getters(type)) {
+                Channel channel = method.getAnnotation(Channel.class);
+                if (channel != null && State.class.isAssignableFrom(method.getReturnType())
+                        && names.add(channel.value())) {
+                    Accessor accessor = Accessor.of(method, channel.value(), null);
+                    if (accessor != null) {
+                        result.add(accessor);
+                    }
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+    };
+
+    // Getters annotated with @Property.
+    private static final ClassValue<List<Accessor>> PROPERTIES = new ClassValue<List<Accessor>>() {
+        @Override
+        protected List<Accessor> computeValue(Class<?> type) {
+            List<Accessor> result = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            for (Method method : getters(type)) {
+                Property property = method.getAnnotation(Property.class);
+                if (property != null && names.add(property.value())) {
+                    Accessor accessor = Accessor.of(method, property.value(), property.nullValue());
+                    if (accessor != null) {
+                        result.add(accessor);
+                    }
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+    };
+
+    private AccessorTable() {
+    }
+
+    /**
+     * Return the getters annotated with @Channel returning a State, of the class and its superclasses. When a
+     * channel is annotated in both a class and its superclass, the getter of the class is used.
+     *
+     * @param type the class.
+     * @return the accessors.
+     */
+    public static List<Accessor> channels(Class<?> type) {
+        return CHANNELS.get(type);
+    }
+
+    /**
+     * Return the getters annotated with @Property of the class and its superclasses.
+     *
+     * @param type the class.
+     * @return the accessors.
+     */
+    public static List<Accessor> properties(Class<?> type) {
+        return PROPERTIES.get(type);
+    }
+
+    /**
+     * Return the public, non static methods without parameters of the class and its superclasses, most specific
+     * class first.
+     *
+     * @param type the class.
+     * @return the methods.
+     */
+    private static List<Method> getters(Class<?> type) {
+        List<Method> result = new ArrayList<>();
+        Class<?> theClass = type;
+        while (theClass != null && theClass != Object.class) {
+            for (Method method : theClass.getDeclaredMethods()) {
+                int modifiers = method.getModifiers();
+                if (Modifier.isPublic(modifiers) && !Modifier.isStatic(modifiers) && !method.isBridge()
+                        && method.getParameterCount() == 0) {
+                    result.add(method);
+                }
+            }
+            theClass = theClass.getSuperclass();
+        }
+        return result;
+    }
+
+    /**
+     * A named getter.
+     */
+    public static final class Accessor {
+
+        private final String name;
+        private final String nullValue;
+        private final MethodHandle getter;
+
+        private Accessor(String name, String nullValue, MethodHandle getter) {
+            this.name = name;
+            this.nullValue = nullValue;
+            this.getter = getter;
+        }
+
+        private static Accessor of(Method method, String name, String nullValue) {
+            try {
+                MethodHandle getter = MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE);
+                return new Accessor(name, nullValue, getter);
+            } catch (IllegalAccessException e) {
+                // Not accessible, e.g. declared in a non public class.
+                return null;
+            }
+        }
+
+        /**
+         * Return the channel id or property name.
+         *
+         * @return the name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Return the display value of a property when it is null.
+         *
+         * @return the display value, null for channels.
+         */
+        public String getNullValue() {
+            return nullValue;
+        }
+
+        /**
+         * Invoke the getter.
+         *
+         * @param target the object to invoke the getter on.
+         * @return the value.
+         * @throws IllegalStateException when the getter throws a checked exception. Unchecked exceptions of the getter
+         *             are thrown as they are.
+         */
+        public Object get(Object target) {
+            try {
+                return getter.invokeExact(target);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+    }
+
+}
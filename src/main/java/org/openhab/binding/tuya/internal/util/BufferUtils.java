@@ -55,6 +55,42 @@ public class BufferUtils {
         return result;
     }
 
+    /**
+     * Get an unsigned 4 bytes number from the byte buffer, using an absolute index.
+     *
+     * @param buffer the buffer containing the bytes.
+     * @param start  the absolute start index in the buffer.
+     * @return the number, reading 4 bytes from start to start + 4.
+     * @throws ParseException
+     */
+    public static long getUInt32(ByteBuffer buffer, int start) throws ParseException {
+        if (start < 0 || buffer.limit() - start - 4 < 0) {
+            throw new ParseException("Buffer too short.");
+        }
+        return buffer.getInt(start) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Copy the bytes between the absolute indexes from and to out of the byte buffer. The position of the buffer is
+     * not changed.
+     *
+     * @param buffer the buffer.
+     * @param from   the absolute start index (inclusive).
+     * @param to     the absolute end index (exclusive).
+     * @return the copy of the range as byte array.
+     * @throws ParseException when the range is outside the buffer.
+     */
+    public static byte[] getBytes(ByteBuffer buffer, int from, int to) throws ParseException {
+        if (from < 0 || to < from || to > buffer.limit()) {
+            throw new ParseException("Buffer too short.");
+        }
+        byte[] result = new byte[to - from];
+        ByteBuffer view = buffer.duplicate();
+        view.limit(to).position(from);
+        view.get(result);
+        return result;
+    }
+
     /**
      * Write an unsigned 4 bytes to the byte buffer.
      *
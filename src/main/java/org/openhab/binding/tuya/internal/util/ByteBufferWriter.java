@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.util;
+
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writer encoding characters as UTF-8 directly into a ByteBuffer, starting at its position. Used to serialize json
+ * without creating an intermediate String and byte array.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class ByteBufferWriter extends Writer {
+
+    private final ByteBuffer buffer;
+
+    // Pending high surrogate of a pair split over two writes.
+    private char highSurrogate;
+
+    public ByteBufferWriter(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Write characters to the buffer.
+     *
+     * @throws BufferOverflowException when the buffer is full.
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            write(cbuf[i]);
+        }
+    }
+
+    /**
+     * Write characters to the buffer.
+     *
+     * @throws BufferOverflowException when the buffer is full.
+     */
+    @Override
+    public void write(String str, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            write(str.charAt(i));
+        }
+    }
+
+    /**
+     * Write a character to the buffer.
+     *
+     * @throws BufferOverflowException when the buffer is full.
+     */
+    @Override
+    public void write(int c) {
+        char ch = (char) c;
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(ch)) {
+                int cp = Character.toCodePoint(high, ch);
+                put((byte) (0xF0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                put((byte) (0x80 | (cp & 0x3F)));
+                return;
+            }
+            // Unpaired surrogate, replaced like String.getBytes does.
+            put((byte) '?');
+        }
+        if (ch < 0x80) {
+            put((byte) ch);
+        } else if (ch < 0x800) {
+            put((byte) (0xC0 | (ch >> 6)));
+            put((byte) (0x80 | (ch & 0x3F)));
+        } else if (Character.isHighSurrogate(ch)) {
+            highSurrogate = ch;
+        } else if (Character.isLowSurrogate(ch)) {
+            put((byte) '?');
+        } else {
+            put((byte) (0xE0 | (ch >> 12)));
+            put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+            put((byte) (0x80 | (ch & 0x3F)));
+        }
+    }
+
+    private void put(byte b) {
+        buffer.put(b);
+    }
+
+    @Override
+    public void flush() {
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            put((byte) '?');
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+}
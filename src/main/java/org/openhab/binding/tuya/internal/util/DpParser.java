@@ -0,0 +1,341 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.util;
+
+import java.nio.charset.StandardCharsets;
+
+import org.openhab.binding.tuya.internal.data.DpMap;
+
+/**
+ * Streaming parser for status messages like {"devId":"...","dps":{"1":true,"3":255},"t":1566481749}. The json is
+ * read directly from the decrypted bytes into a DpMap, without creating a String of the whole message or using
+ * reflection. Members other than devId, dps and t are skipped.
+ *
+ * Only what devices actually send is supported. For anything else, like escaped strings or fractional numbers, the
+ * parser gives up and returns null, so the caller can fall back to Gson.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public final class DpParser {
+
+    private static final byte[] DEV_ID = "devId".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DPS = "dps".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TIME = "t".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    // Maximum nesting of skipped values.
+    private static final int MAX_DEPTH = 32;
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+
+    // Results of readKey() and readNumber().
+    private int keyStart;
+    private int keyEnd;
+    private long number;
+
+    private DpParser(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Parse a status message.
+     *
+     * @param buf    the buffer containing the json data, UTF-8 encoded.
+     * @param offset the start of the data.
+     * @param length the length of the data.
+     * @return the data points, or null when the data is not supported by this parser.
+     */
+    public static DpMap parse(byte[] buf, int offset, int length) {
+        DpMap map = new DpMap();
+        return new DpParser(buf, offset, length).parseMessage(map) ? map : null;
+    }
+
+    private boolean parseMessage(DpMap map) {
+        if (!consume('{')) {
+            return false;
+        }
+        if (!consume('}')) {
+            do {
+                if (!readKey() || !consume(':')) {
+                    return false;
+                }
+                boolean ok;
+                if (keyEquals(DPS)) {
+                    ok = parseDps(map);
+                } else if (keyEquals(DEV_ID)) {
+                    String devId = readString();
+                    ok = devId != null;
+                    map.setDevId(devId);
+                } else if (keyEquals(TIME)) {
+                    ok = readNumber();
+                    map.setTime(number);
+                } else {
+                    ok = skipValue(0);
+                }
+                if (!ok) {
+                    return false;
+                }
+            } while (consume(','));
+            if (!consume('}')) {
+                return false;
+            }
+        }
+        skipWhitespace();
+        return pos == end;
+    }
+
+    private boolean parseDps(DpMap map) {
+        if (!consume('{')) {
+            return false;
+        }
+        if (consume('}')) {
+            return true;
+        }
+        do {
+            if (!readKey() || !consume(':')) {
+                return false;
+            }
+            int dp = keyAsInt();
+            if (dp < 0) {
+                // Not a numeric data point.
+                if (!skipValue(0)) {
+                    return false;
+                }
+                continue;
+            }
+            skipWhitespace();
+            if (pos == end) {
+                return false;
+            }
+            byte b = buf[pos];
+            if (b == 't' || b == 'f') {
+                boolean value = b == 't';
+                if (!literal(value ? TRUE : FALSE)) {
+                    return false;
+                }
+                map.putBoolean(dp, value);
+            } else if (b == '"') {
+                String value = readString();
+                if (value == null) {
+                    return false;
+                }
+                map.putString(dp, value);
+            } else if (b == '-' || (b >= '0' && b <= '9')) {
+                if (!readNumber()) {
+                    return false;
+                }
+                map.putNumber(dp, number);
+            } else if (!skipValue(0)) {
+                // null or a structured value, not used by any device state.
+                return false;
+            }
+        } while (consume(','));
+        return consume('}');
+    }
+
+    /**
+     * Read a member name without escapes, setting keyStart and keyEnd to the characters between the quotes.
+     */
+    private boolean readKey() {
+        if (!consume('"')) {
+            return false;
+        }
+        keyStart = pos;
+        while (pos < end && buf[pos] != '"') {
+            if (buf[pos] == '\\') {
+                return false;
+            }
+            pos++;
+        }
+        if (pos == end) {
+            return false;
+        }
+        keyEnd = pos++;
+        return true;
+    }
+
+    private boolean keyEquals(byte[] name) {
+        if (keyEnd - keyStart != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buf[keyStart + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the member name as data point id, -1 when it is not a number.
+     */
+    private int keyAsInt() {
+        int length = keyEnd - keyStart;
+        if (length == 0 || length > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = keyStart; i < keyEnd; i++) {
+            byte b = buf[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + b - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Read a string value without escapes.
+     *
+     * @return the string, null when not a string or when it contains escapes.
+     */
+    private String readString() {
+        if (!consume('"')) {
+            return null;
+        }
+        int start = pos;
+        while (pos < end && buf[pos] != '"') {
+            if (buf[pos] == '\\') {
+                return null;
+            }
+            pos++;
+        }
+        if (pos == end) {
+            return null;
+        }
+        return new String(buf, start, pos++ - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read an integral number into the number field. Fractions and exponents are not supported.
+     */
+    private boolean readNumber() {
+        skipWhitespace();
+        boolean negative = pos < end && buf[pos] == '-';
+        if (negative) {
+            pos++;
+        }
+        int start = pos;
+        long value = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            if (value > (Long.MAX_VALUE - 9) / 10) {
+                return false;
+            }
+            value = value * 10 + buf[pos++] - '0';
+        }
+        if (pos == start || (pos < end && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E'))) {
+            return false;
+        }
+        number = negative ? -value : value;
+        return true;
+    }
+
+    /**
+     * Skip any json value.
+     */
+    private boolean skipValue(int depth) {
+        skipWhitespace();
+        if (pos == end || depth > MAX_DEPTH) {
+            return false;
+        }
+        switch (buf[pos]) {
+            case '{':
+                pos++;
+                if (consume('}')) {
+                    return true;
+                }
+                do {
+                    if (!skipString() || !consume(':') || !skipValue(depth + 1)) {
+                        return false;
+                    }
+                } while (consume(','));
+                return consume('}');
+            case '[':
+                pos++;
+                if (consume(']')) {
+                    return true;
+                }
+                do {
+                    if (!skipValue(depth + 1)) {
+                        return false;
+                    }
+                } while (consume(','));
+                return consume(']');
+            case '"':
+                return skipString();
+            case 't':
+                return literal(TRUE);
+            case 'f':
+                return literal(FALSE);
+            case 'n':
+                return literal(NULL);
+            default:
+                int start = pos;
+                while (pos < end && isNumberChar(buf[pos])) {
+                    pos++;
+                }
+                return pos > start;
+        }
+    }
+
+    private boolean skipString() {
+        if (!consume('"')) {
+            return false;
+        }
+        while (pos < end && buf[pos] != '"') {
+            pos += buf[pos] == '\\' ? 2 : 1;
+        }
+        if (pos >= end) {
+            return false;
+        }
+        pos++;
+        return true;
+    }
+
+    private boolean literal(byte[] literal) {
+        if (end - pos < literal.length) {
+            return false;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (buf[pos + i] != literal[i]) {
+                return false;
+            }
+        }
+        pos += literal.length;
+        return true;
+    }
+
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (pos < end && buf[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && (buf[pos] == ' ' || buf[pos] == '\n' || buf[pos] == '\r' || buf[pos] == '\t')) {
+            pos++;
+        }
+    }
+
+    private static boolean isNumberChar(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+}
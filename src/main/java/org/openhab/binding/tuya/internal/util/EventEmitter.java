@@ -0,0 +1,258 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An event emitter that allows any number of handlers for each event.
+ *
+ * The handlers of an event are kept in an array that is replaced, never changed, when a handler is added or removed.
+ * Emitting an event therefore takes a single lookup and no lock, also while handlers are added from other threads.
+ *
+ * A handler is called on the thread emitting the event, or on an executor given when it was added. The latter is meant
+ * for handlers doing lengthy work, like logging or metrics, so they do not delay e.g. the selector thread. Their return
+ * value is ignored. An emitter that reuses its payloads overrides detach, to give these handlers a copy.
+ *
+ * @author Wim Vissers.
+ *
+ * @param &lt;E&gt; the event type.
+ * @param &lt;P&gt; the type of payload the consumer accepts.
+ * @param &lt;R&gt; the type of return object the callback functions provide.
+ */
+public class EventEmitter<E, P, R> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventEmitter.class);
+
+    /**
+     * Key: the event name. Value: the handlers to call when the event happens, in the order they were added.
+     */
+    private final ConcurrentHashMap<E, Handler<E, P, R>[]> callbacks;
+
+    public EventEmitter() {
+        callbacks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Register a callback to listen for certain events.
+     *
+     * @param event    the event to listen to.
+     * @param callback the callback to call on the emitting thread.
+     * @return this emitter.
+     */
+    public EventEmitter<E, P, R> on(E event, BiFunction<E, P, R> callback) {
+        return on(event, callback, null);
+    }
+
+    /**
+     * Register a callback to listen for certain events, called on the given executor.
+     *
+     * @param event    the event to listen to.
+     * @param callback the callback to call.
+     * @param executor the executor to call the callback on, null to call it on the emitting thread.
+     * @return this emitter.
+     */
+    public EventEmitter<E, P, R> on(E event, BiFunction<E, P, R> callback, Executor executor) {
+        if (event != null) {
+            Handler<E, P, R> handler = new Handler<>(callback, executor);
+            callbacks.merge(event, array(handler), EventEmitter::concat);
+            handlerAdded(event, callback);
+        }
+        return this;
+    }
+
+    /**
+     * Register a callback for an event that has no callbacks yet, e.g. when only one thing may handle a device.
+     *
+     * @param event    the event to listen to.
+     * @param callback the callback to call on the emitting thread.
+     * @return true when registered, false when the event has a callback already.
+     */
+    public boolean onIfAbsent(E event, BiFunction<E, P, R> callback) {
+        if (event == null || callbacks.putIfAbsent(event, array(new Handler<>(callback, null))) != null) {
+            return false;
+        }
+        handlerAdded(event, callback);
+        return true;
+    }
+
+    /**
+     * Register a callback to listen for multiple events.
+     *
+     * @param callback the callback to call.
+     * @param events   the events to listen to.
+     * @return this emitter.
+     */
+    @SafeVarargs
+    public final EventEmitter<E, P, R> handle(BiFunction<E, P, R> callback, E... events) {
+        for (E event : events) {
+            on(event, callback);
+        }
+        return this;
+    }
+
+    /**
+     * Return true when the event has callbacks.
+     *
+     * @param event the event.
+     * @return true when the event has callbacks.
+     */
+    public boolean hasHandler(E event) {
+        return event != null && callbacks.containsKey(event);
+    }
+
+    /**
+     * Remove all the handlers associated with the given event.
+     *
+     * @param event the event.
+     * @return this emitter.
+     */
+    public EventEmitter<E, P, R> removeHandler(E event) {
+        callbacks.remove(event);
+        return this;
+    }
+
+    /**
+     * Remove a single callback associated with the given event.
+     *
+     * @param event    the event.
+     * @param callback the callback, as it was registered.
+     * @return this emitter.
+     */
+    public EventEmitter<E, P, R> removeHandler(E event, BiFunction<E, P, R> callback) {
+        if (event != null) {
+            callbacks.computeIfPresent(event, (key, handlers) -> remove(handlers, callback));
+        }
+        return this;
+    }
+
+    public EventEmitter<E, P, R> removeAllHandlers() {
+        callbacks.clear();
+        return this;
+    }
+
+    /**
+     * Emit an event with payload. Return the first non-null value the callback functions called on this thread
+     * return, or null if none of them returned a non-null value.
+     *
+     * @param event   the event.
+     * @param payload the payload of type P.
+     * @return the first non-null value returned.
+     */
+    public R emit(E event, P payload) {
+        Handler<E, P, R>[] handlers = callbacks.get(event);
+        if (handlers == null) {
+            return null;
+        }
+        R result = null;
+        P detached = null;
+        for (Handler<E, P, R> handler : handlers) {
+            if (handler.executor == null) {
+                R value = handler.callback.apply(event, payload);
+                if (result == null) {
+                    result = value;
+                }
+            } else {
+                if (detached == null) {
+                    detached = detach(payload);
+                }
+                deliver(handler, event, detached);
+            }
+        }
+        return result;
+    }
+
+    private void deliver(Handler<E, P, R> handler, E event, P payload) {
+        try {
+            handler.executor.execute(() -> {
+                try {
+                    handler.callback.apply(event, payload);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Error handling event {}.", event, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Event {} not delivered, the executor is shut down.", event);
+        }
+    }
+
+    /**
+     * Override in subclasses to stop running tasks.
+     */
+    public void stop() {
+    }
+
+    /**
+     * Return the payload to pass to the handlers called on an executor, once per event. Override when the payload is
+     * reused after the event, to return a copy.
+     *
+     * @param payload the payload.
+     * @return the payload, or a copy of it.
+     */
+    protected P detach(P payload) {
+        return payload;
+    }
+
+    /**
+     * When a new handler is added, this method is called. Override when necessary.
+     */
+    protected void handlerAdded(E event, BiFunction<E, P, R> callback) {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E, P, R> Handler<E, P, R>[] array(Handler<E, P, R> handler) {
+        return new Handler[] { handler };
+    }
+
+    private static <E, P, R> Handler<E, P, R>[] concat(Handler<E, P, R>[] handlers, Handler<E, P, R>[] added) {
+        Handler<E, P, R>[] result = Arrays.copyOf(handlers, handlers.length + added.length);
+        System.arraycopy(added, 0, result, handlers.length, added.length);
+        return result;
+    }
+
+    /**
+     * Return the handlers without the first one with the given callback, null when none are left.
+     */
+    private static <E, P, R> Handler<E, P, R>[] remove(Handler<E, P, R>[] handlers, BiFunction<E, P, R> callback) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i].callback == callback) {
+                if (handlers.length == 1) {
+                    return null;
+                }
+                Handler<E, P, R>[] result = Arrays.copyOf(handlers, handlers.length - 1);
+                System.arraycopy(handlers, i + 1, result, i, handlers.length - i - 1);
+                return result;
+            }
+        }
+        return handlers;
+    }
+
+    /**
+     * A callback and the executor to call it on.
+     */
+    private static class Handler<E, P, R> {
+
+        private final BiFunction<E, P, R> callback;
+        private final Executor executor;
+
+        Handler(BiFunction<E, P, R> callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+    }
+
+}
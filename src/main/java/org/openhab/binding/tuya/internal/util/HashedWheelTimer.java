@@ -0,0 +1,467 @@
+/**
+ * Copyright (c) 2010-2018 by the respective copyright holders.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.tuya.internal.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A timer for large numbers of short tasks like request deadlines, heartbeats and watchdogs, shared by the whole
+ * binding. Timeouts are kept in a wheel of buckets, one bucket per tick, so scheduling and cancelling cost a constant
+ * time and a single thread serves all timeouts. The price is precision: a timeout expires on the first tick after its
+ * deadline.
+ *
+ * Tasks scheduled without an executor run on the timer thread and must be short. Anything lengthy is scheduled with
+ * an executor, the timer thread then only hands the task over when it is due.
+ *
+ * The lag of the ticks, the time between the deadline of a tick and the moment it is handled, is measured and logged
+ * every minute. A growing lag means the timer thread is blocked by a task.
+ *
+ * @author Wim Vissers.
+ *
+ */
+public class HashedWheelTimer {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WHEEL_SIZE = 512;
+    private static final long REPORT_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final long LAG_WARNING_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Create and store the singleton implementation.
+    private static final HashedWheelTimer INSTANCE = new HashedWheelTimer(TICK_NANOS, WHEEL_SIZE);
+
+    private final Logger logger = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    // Timeouts scheduled since the last tick, moved to the wheel by the timer thread.
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    // The timer thread, null when stopped. Guarded by the lock of this object.
+    private Thread thread;
+
+    // The time the timer was started, ticks are counted from here. Written before the thread starts.
+    private volatile long startNanos;
+
+    // Statistics. The lag figures are those of the last report interval.
+    private final AtomicLong tasksRun = new AtomicLong();
+    private volatile long averageLagNanos;
+    private volatile long maxLagNanos;
+    private volatile int pending;
+
+    /**
+     * Create a timer.
+     *
+     * @param tickNanos the duration of a tick in nanoseconds.
+     * @param wheelSize the number of buckets, rounded up to a power of 2.
+     */
+    HashedWheelTimer(long tickNanos, int wheelSize) {
+        this.tickNanos = tickNanos;
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Get the singleton instance.
+     *
+     * @return the instance.
+     */
+    public static HashedWheelTimer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Schedule a task. The timer thread is started when needed.
+     *
+     * @param task  the task.
+     * @param delay the delay.
+     * @param unit  the unit of the delay.
+     * @return the timeout, to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return schedule(task, delay, unit, null);
+    }
+
+    /**
+     * Schedule a task to run on an executor.
+     *
+     * @param task     the task.
+     * @param delay    the delay.
+     * @param unit     the unit of the delay.
+     * @param executor the executor to run the task on, null to run it on the timer thread.
+     * @return the timeout, to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit, Executor executor) {
+        return add(new Timeout(task, executor, deadline(delay, unit), 0));
+    }
+
+    /**
+     * Schedule a task to run periodically on an executor, until it is cancelled. Periods missed because the timer was
+     * blocked are skipped.
+     *
+     * @param task         the task.
+     * @param initialDelay the delay of the first run.
+     * @param period       the period.
+     * @param unit         the unit of the delay and period.
+     * @param executor     the executor to run the task on, null to run it on the timer thread.
+     * @return the timeout, to cancel the task.
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit,
+            Executor executor) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive.");
+        }
+        return add(new Timeout(task, executor, deadline(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    /**
+     * Return a random delay between half and one and a half period. Periodic tasks of many devices, started at the
+     * same time after a restart, are spread over a whole period this way, instead of all running in the same tick.
+     *
+     * @param period the period.
+     * @return the delay, in the unit of the period.
+     */
+    public static long jitteredDelay(long period) {
+        return period / 2 + ThreadLocalRandom.current().nextLong(Math.max(1, period));
+    }
+
+    private long deadline(long delay, TimeUnit unit) {
+        start();
+        return System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+    }
+
+    private Timeout add(Timeout timeout) {
+        added.add(timeout);
+        return timeout;
+    }
+
+    private synchronized void start() {
+        if (thread == null) {
+            startNanos = System.nanoTime();
+            thread = new Thread(this::run, "tuya-timer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the timer. Pending timeouts are cancelled, the timer starts again when a task is scheduled. The timer is
+     * shared by the whole binding, and its thread is a daemon, so it is normally left running.
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            if (thread != Thread.currentThread()) {
+                // Wait until the wheel is cleared, before it can be started again.
+                try {
+                    thread.join(TimeUnit.NANOSECONDS.toMillis(tickNanos) * 10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * Return the number of tasks run, or handed over to their executor, since the timer was created.
+     *
+     * @return the number of tasks.
+     */
+    public long getTaskCount() {
+        return tasksRun.get();
+    }
+
+    /**
+     * Return the number of timeouts in the wheel, including cancelled ones not yet removed.
+     *
+     * @return the number of timeouts.
+     */
+    public int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * Return the average lag of the ticks in the last report interval.
+     *
+     * @return the lag in milliseconds.
+     */
+    public long getAverageLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(averageLagNanos);
+    }
+
+    /**
+     * Return the maximum lag of the ticks in the last report interval.
+     *
+     * @return the lag in milliseconds.
+     */
+    public long getMaxLagMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLagNanos);
+    }
+
+    private void run() {
+        Thread self = Thread.currentThread();
+        long tick = 0;
+        int size = 0;
+        long lagSum = 0;
+        long lagMax = 0;
+        long lagTicks = 0;
+        long nextReport = REPORT_NANOS;
+        while (!self.isInterrupted()) {
+            long deadline = (tick + 1) * tickNanos;
+            long now = System.nanoTime() - startNanos;
+            if (deadline > now) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(deadline - now);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                now = System.nanoTime() - startNanos;
+            }
+            long lag = now - deadline;
+            lagSum += lag;
+            lagMax = Math.max(lagMax, lag);
+            lagTicks++;
+            size += transferAdded(tick);
+            size -= wheel[(int) (tick & mask)].expire(deadline);
+            pending = size;
+            tick++;
+            if (deadline >= nextReport) {
+                report(lagSum / lagTicks, lagMax);
+                nextReport = deadline + REPORT_NANOS;
+                lagSum = 0;
+                lagMax = 0;
+                lagTicks = 0;
+            }
+        }
+        // Stopped, cancel everything, so the owners of the timeouts can tell they will not run.
+        for (Timeout timeout = added.poll(); timeout != null; timeout = added.poll()) {
+            timeout.cancel();
+        }
+        for (Bucket bucket : wheel) {
+            bucket.clear();
+        }
+        pending = 0;
+    }
+
+    private void report(long averageLag, long maxLag) {
+        averageLagNanos = averageLag;
+        maxLagNanos = maxLag;
+        if (maxLag > LAG_WARNING_NANOS) {
+            logger.warn("Timer lagging behind, maximum lag {} ms. A timer task is probably blocking.",
+                    TimeUnit.NANOSECONDS.toMillis(maxLag));
+        }
+        logger.debug("Timer: {} pending, {} run, lag average {} ms, maximum {} ms.", pending, tasksRun.get(),
+                TimeUnit.NANOSECONDS.toMillis(averageLag), TimeUnit.NANOSECONDS.toMillis(maxLag));
+    }
+
+    /**
+     * Move the timeouts scheduled since the last tick to their buckets.
+     *
+     * @return the number of timeouts moved.
+     */
+    private int transferAdded(long tick) {
+        int count = 0;
+        for (Timeout timeout = added.poll(); timeout != null; timeout = added.poll()) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // Timeouts with a deadline in the past expire on the current tick.
+            long ticks = Math.max(tick, timeout.deadline / tickNanos);
+            timeout.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A scheduled task.
+     */
+    public final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final Executor executor;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Deadline relative to the start of the timer, advanced by the timer thread for periodic tasks.
+        private long deadline;
+
+        // The period in nanoseconds, 0 for a task that runs once.
+        private final long period;
+
+        // The remaining rounds of the wheel before expiry, and the links of the bucket. Only used by the timer thread.
+        private long rounds;
+        private Timeout next;
+        private Timeout previous;
+
+        private Timeout(Runnable task, Executor executor, long deadline, long period) {
+            this.task = task;
+            this.executor = executor;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Cancel the task. A periodic task does not run again, though a run handed over to its executor already may
+         * still be in progress.
+         *
+         * @return true when cancelled, false when it expired or was cancelled already.
+         */
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        /**
+         * Return true when the task is still to run, or runs again for a periodic task.
+         *
+         * @return true when pending.
+         */
+        public boolean isPending() {
+            return state.get() == PENDING;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (period > 0) {
+                if (state.get() == PENDING) {
+                    execute();
+                    // Skip the periods missed while the timer was catching up, keeping the phase, and put it back in
+                    // the wheel.
+                    long now = System.nanoTime() - startNanos;
+                    deadline += period;
+                    if (deadline <= now) {
+                        deadline += ((now - deadline) / period + 1) * period;
+                    }
+                    added.add(this);
+                }
+            } else if (state.compareAndSet(PENDING, EXPIRED)) {
+                execute();
+            }
+        }
+
+        private void execute() {
+            tasksRun.incrementAndGet();
+            if (executor == null) {
+                runTask();
+            } else {
+                try {
+                    executor.execute(this::runTask);
+                } catch (RejectedExecutionException e) {
+                    logger.debug("Timer task rejected by its executor.");
+                }
+            }
+        }
+
+        private void runTask() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Timer task failed.", e);
+            }
+        }
+
+    }
+
+    /**
+     * The timeouts of a tick, a linked list only used by the timer thread.
+     */
+    private final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.previous = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        /**
+         * Expire the timeouts with a deadline up to the given one, and remove the cancelled timeouts.
+         *
+         * @return the number of timeouts removed.
+         */
+        int expire(long deadline) {
+            int count = 0;
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.isCancelled()) {
+                    remove(timeout);
+                    count++;
+                } else if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    count++;
+                    timeout.expire();
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+            return count;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.next = null;
+            timeout.previous = null;
+        }
+
+        void clear() {
+            for (Timeout timeout = head; timeout != null; timeout = timeout.next) {
+                timeout.cancel();
+            }
+            head = null;
+            tail = null;
+        }
+
+    }
+
+}
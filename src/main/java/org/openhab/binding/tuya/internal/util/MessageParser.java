@@ -9,9 +9,10 @@
 package org.openhab.binding.tuya.internal.util;
 
 import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.ShortBufferException;
 
 import org.openhab.binding.tuya.internal.data.CommandByte;
 import org.openhab.binding.tuya.internal.data.Message;
@@ -30,6 +31,10 @@ public class MessageParser {
 
     private static final int HEADER_SIZE = 16;
 
+    // The header of encrypted 3.3 payloads, the version padded with zeroes.
+    private static final int VERSION_HEADER_SIZE = 15;
+    private static final byte[] VERSION_HEADER = { '3', '.', '3', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
     // Helper class instances.
     private TuyaCipher cipher;
     private final String version;
@@ -44,7 +49,33 @@ public class MessageParser {
     }
 
     public Message decode(byte[] buffer) throws ParseException {
-        int length = buffer.length;
+        return decode(ByteBuffer.wrap(buffer));
+    }
+
+    /**
+     * Decode a single frame. The frame starts at the position of the buffer and ends at its limit. The position and
+     * limit of the buffer are not changed.
+     *
+     * @param buffer the buffer containing the frame.
+     * @return the decoded message.
+     * @throws ParseException when the frame is invalid.
+     */
+    public Message decode(ByteBuffer buffer) throws ParseException {
+        return decode(buffer, true);
+    }
+
+    /**
+     * Decode a single frame, like decode(ByteBuffer). Frames known to carry plain json, like the broadcasts of older
+     * firmware on port 6666, are decoded without attempting decryption.
+     *
+     * @param buffer    the buffer containing the frame.
+     * @param encrypted false when the payload is not encrypted.
+     * @return the decoded message.
+     * @throws ParseException when the frame is invalid.
+     */
+    public Message decode(ByteBuffer buffer, boolean encrypted) throws ParseException {
+        int start = buffer.position();
+        int length = buffer.remaining();
         // Check for length
         // At minimum requires: prefix (4), sequence (4), command (4), length (4),
         // CRC (4), and suffix (4) for 24 total bytes
@@ -54,67 +85,148 @@ public class MessageParser {
         }
 
         // Check for prefix
-        long prefix = BufferUtils.getUInt32(buffer, 0);
+        long prefix = BufferUtils.getUInt32(buffer, start);
         if (prefix != 0x000055AA) {
             throw new ParseException("Prefix does not match: " + String.format("%x", prefix));
         }
 
-        // Check for extra data
-        int leftover = 0;
-
-        // Leftover points to beginning of next packet, if any.
-        int suffixLocation = BufferUtils.indexOfUInt32(buffer, 0x0000AA55);
-        leftover = suffixLocation + 4;
-
         // Get sequence number
-        long sequenceNumber = BufferUtils.getUInt32(buffer, 4);
+        long sequenceNumber = BufferUtils.getUInt32(buffer, start + 4);
 
         // Get command byte
-        long commandByte = BufferUtils.getUInt32(buffer, 8);
+        long commandByte = BufferUtils.getUInt32(buffer, start + 8);
 
         // Get payload size
-        long payloadSize = BufferUtils.getUInt32(buffer, 12);
+        long payloadSize = BufferUtils.getUInt32(buffer, start + 12);
 
         // Check for payload
-        if (leftover - 8 < payloadSize) {
+        if (length - HEADER_SIZE < payloadSize) {
             throw new ParseException("Packet missing payload: payload has length: " + payloadSize);
         }
 
         // Get the return code, 0 = success
         // This field is only present in messages from the devices
         // Absent in messages sent to device
-        long returnCode = BufferUtils.getUInt32(buffer, 16);
+        long returnCode = BufferUtils.getUInt32(buffer, start + 16);
 
         // Get the payload
         // Adjust for messages lacking a return code
+        int payloadEnd = (int) (HEADER_SIZE + payloadSize - 8);
         byte[] payload;
         boolean correct = false;
         if ((returnCode & 0xFFFFFF00) != 0) {
-            payload = Arrays.copyOfRange(buffer, HEADER_SIZE, (int) (HEADER_SIZE + payloadSize - 8));
+            payload = BufferUtils.getBytes(buffer, start + HEADER_SIZE, start + payloadEnd);
         } else if (commandByte == CommandByte.STATUS.getValue()) {
             correct = true;
-            payload = Arrays.copyOfRange(buffer, HEADER_SIZE + 3, (int) (HEADER_SIZE + payloadSize - 8));
+            payload = BufferUtils.getBytes(buffer, start + HEADER_SIZE + 3, start + payloadEnd);
         } else {
-            payload = Arrays.copyOfRange(buffer, HEADER_SIZE + 4, (int) (HEADER_SIZE + payloadSize - 8));
+            payload = BufferUtils.getBytes(buffer, start + HEADER_SIZE + 4, start + payloadEnd);
         }
 
         // Check CRC
-        long expectedCrc = BufferUtils.getUInt32(buffer, (int) (HEADER_SIZE + payloadSize - 8));
-        long computedCrc = Crc.crc32(Arrays.copyOfRange(buffer, 0, (int) (payloadSize + 8)));
+        long expectedCrc = BufferUtils.getUInt32(buffer, start + payloadEnd);
+        long computedCrc = Crc.crc32(buffer, start, payloadEnd);
 
         if (computedCrc != expectedCrc) {
             throw new ParseException("Crc error. Expected: " + expectedCrc + ", computed: " + computedCrc);
         }
+        if (!encrypted) {
+            return new Message(payload, sequenceNumber, commandByte, payload, 0, payload.length);
+        }
         try {
-            // String data = new String(cipher.decrypt(payload), "UTF-8");
-            byte[] data = cipher.decrypt(payload);
-            String text = correct ? new String(data, 16, data.length - 16) : new String(data, "UTF-8");
-            return new Message(payload, sequenceNumber, commandByte, text);
-        } catch (UnsupportedEncodingException | IllegalBlockSizeException e) {
+            // Broadcasts are encrypted with the UDP key, everything else with the key of the device.
+            byte[] data = cipherFor(commandByte).decrypt(payload);
+            if (data == null) {
+                return new Message(payload, sequenceNumber, commandByte, new String(payload));
+            }
+            // The json data is kept as bytes, status messages are parsed from them without creating a String.
+            int skip = correct ? Math.min(16, data.length) : 0;
+            return new Message(payload, sequenceNumber, commandByte, data, skip, data.length - skip);
+        } catch (IllegalBlockSizeException e) {
             return new Message(payload, sequenceNumber, commandByte, new String(payload));
         }
     }
 
+    /**
+     * Select the cipher for the message from its command, so no decryption is attempted with the wrong key.
+     *
+     * @param commandByte the command of the message.
+     * @return the cipher.
+     */
+    private TuyaCipher cipherFor(long commandByte) {
+        if (commandByte == CommandByte.UDP.getValue() || commandByte == CommandByte.UDP_NEW.getValue()) {
+            return TuyaCipher.getUdpCipher();
+        }
+        return cipher;
+    }
+
+    /**
+     * Return the size of the frame for a message.
+     *
+     * @param inputLength the size of the unencrypted payload.
+     * @param command     the command.
+     * @return the frame size in bytes.
+     */
+    public int getEncodedSize(int inputLength, CommandByte command) {
+        int payloadLength = inputLength;
+        if (version.equals("3.3")) {
+            payloadLength = TuyaCipher.getEncryptedSize(inputLength);
+            if (!command.equals(CommandByte.DP_QUERY)) {
+                payloadLength += VERSION_HEADER_SIZE;
+            }
+        }
+        return payloadLength + 24;
+    }
+
+    /**
+     * Encode a message into a buffer. The payload between position and limit of the input is encrypted directly into
+     * the output, and the header, CRC and suffix are written around it, so no intermediate arrays are needed. The
+     * frame is written starting at the position of the output. When done, the position of the output is just after
+     * the frame.
+     *
+     * @param input      the unencrypted payload.
+     * @param command    the command.
+     * @param sequenceNo the sequence number, not set when negative.
+     * @param output     the buffer to write the frame to.
+     * @return true when encoded, false when the frame does not fit in the output (nothing is written then).
+     */
+    public boolean encode(ByteBuffer input, CommandByte command, long sequenceNo, ByteBuffer output) {
+        int frameSize = getEncodedSize(input.remaining(), command);
+        if (output.remaining() < frameSize) {
+            return false;
+        }
+        int start = output.position();
+
+        // Add prefix, sequence number, command and length.
+        output.putInt((int) 0x000055AA);
+        output.putInt(sequenceNo >= 0 ? (int) sequenceNo : 0);
+        output.putInt(command.getValue());
+        output.putInt(frameSize - HEADER_SIZE);
+
+        // Add payload.
+        if (version.equals("3.3")) {
+            if (!command.equals(CommandByte.DP_QUERY)) {
+                // Add 3.3 header.
+                output.put(VERSION_HEADER);
+            }
+            try {
+                cipher.encrypt(input, output);
+            } catch (ShortBufferException e) {
+                // Should not happen, the size has been checked.
+                output.position(start);
+                return false;
+            }
+        } else {
+            // todo: older protocols
+            output.put(input);
+        }
+
+        // Add crc and suffix.
+        output.putInt((int) Crc.crc32(output, start, output.position() - start));
+        output.putInt(0x0000AA55);
+        return true;
+    }
+
     public byte[] encode(byte[] input, CommandByte command, long sequenceNo) {
         byte[] payload = null;
         // Version 3.3 is always encrypted.
@@ -150,9 +262,7 @@ public class MessageParser {
 
         // Add payload, crc and suffix
         BufferUtils.copy(buffer, payload, 16);
-        byte[] crcbuf = new byte[payload.length + 16];
-        BufferUtils.copy(crcbuf, buffer, 0, payload.length + 16);
-        BufferUtils.putUInt32(buffer, payload.length + 16, Crc.crc32(crcbuf));
+        BufferUtils.putUInt32(buffer, payload.length + 16, Crc.crc32(buffer, 0, payload.length + 16));
         BufferUtils.putUInt32(buffer, payload.length + 20, 0x0000AA55);
 
         return buffer;
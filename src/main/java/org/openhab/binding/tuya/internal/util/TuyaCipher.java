@@ -10,14 +10,13 @@ package org.openhab.binding.tuya.internal.util;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -28,6 +27,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Cipher class for encrypting and decrypting messages.
  *
+ * The javax.crypto.Cipher instances are expensive to obtain and initialize, so each TuyaCipher keeps an initialized
+ * encrypt and decrypt instance for its key and reuses them. A Cipher is not thread safe, hence the instances are only
+ * used while holding the lock of this TuyaCipher. In practice a TuyaCipher is used by a single selector loop, so the
+ * lock is uncontended.
+ *
  * Ported from https://github.com/codetheweb/tuyapi.
  *
  * @author Wim Vissers.
@@ -35,19 +39,19 @@ import org.slf4j.LoggerFactory;
  */
 public class TuyaCipher implements UdpConfig {
 
-    private static byte[] udpKey;
-    private static Logger logger;
+    private static final String TRANSFORMATION = "AES/ECB/PKCS5PADDING";
+
+    private static volatile TuyaCipher udpCipher;
+    private static final Logger logger = LoggerFactory.getLogger(TuyaCipher.class);
 
-    private byte[] key;
+    private final SecretKeySpec secretKey;
+
+    // Initialized instances, created on first use.
+    private Cipher encryptCipher;
+    private Cipher decryptCipher;
 
     public TuyaCipher(byte[] key) {
-        this.key = key;
-        if (udpKey == null) {
-            setUdpKey(DEFAULT_UDP_KEY);
-        }
-        if (logger == null) {
-            logger = LoggerFactory.getLogger(getClass());
-        }
+        this.secretKey = new SecretKeySpec(key, "AES");
     }
 
     public TuyaCipher(String key) throws UnsupportedEncodingException {
@@ -55,7 +59,19 @@ public class TuyaCipher implements UdpConfig {
     }
 
     public static void setUdpKey(String key) {
-        udpKey = getDigest(key);
+        udpCipher = new TuyaCipher(getDigest(key));
+    }
+
+    /**
+     * Return the cipher for UDP broadcast messages, which are encrypted with the MD5 digest of the UDP key.
+     *
+     * @return the shared UDP cipher.
+     */
+    public static TuyaCipher getUdpCipher() {
+        if (udpCipher == null) {
+            setUdpKey(DEFAULT_UDP_KEY);
+        }
+        return udpCipher;
     }
 
     public static final byte[] getDigest(String key) {
@@ -69,6 +85,94 @@ public class TuyaCipher implements UdpConfig {
         }
     }
 
+    /**
+     * Return the initialized cipher for encryption.
+     *
+     * @return the cipher.
+     * @throws GeneralSecurityException when AES is not available (should not happen).
+     */
+    private Cipher encryptCipher() throws GeneralSecurityException {
+        if (encryptCipher == null) {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+            encryptCipher = cipher;
+        }
+        return encryptCipher;
+    }
+
+    /**
+     * Return the initialized cipher for decryption.
+     *
+     * @return the cipher.
+     * @throws GeneralSecurityException when AES is not available (should not happen).
+     */
+    private Cipher decryptCipher() throws GeneralSecurityException {
+        if (decryptCipher == null) {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey);
+            decryptCipher = cipher;
+        }
+        return decryptCipher;
+    }
+
+    /**
+     * Return the size of the encrypted output for the given input size.
+     *
+     * @param length the input size.
+     * @return the output size, including padding.
+     */
+    public static int getEncryptedSize(int length) {
+        return (length / 16 + 1) * 16;
+    }
+
+    /**
+     * Encrypt the bytes between position and limit of the input into the output buffer, starting at its position.
+     * The position of the input is advanced to its limit, the position of the output by the number of bytes written.
+     * No buffers are allocated for heap buffers.
+     *
+     * @param input  the input buffer.
+     * @param output the output buffer.
+     * @return the number of bytes written.
+     * @throws ShortBufferException when the output buffer is too small.
+     */
+    public synchronized int encrypt(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+        try {
+            return encryptCipher().doFinal(input, output);
+        } catch (ShortBufferException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            // Should not happen
+            logger.error("Unexpected error when encrypting.", e);
+            encryptCipher = null;
+            return 0;
+        }
+    }
+
+    /**
+     * Decrypt the bytes between position and limit of the input into the output buffer, starting at its position.
+     * The position of the input is advanced to its limit, the position of the output by the number of bytes written.
+     * No buffers are allocated for heap buffers.
+     *
+     * @param input  the input buffer.
+     * @param output the output buffer.
+     * @return the number of bytes written, or -1 if the input could not be decrypted with this key.
+     * @throws ShortBufferException when the output buffer is too small.
+     */
+    public synchronized int decrypt(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+        try {
+            return decryptCipher().doFinal(input, output);
+        } catch (ShortBufferException e) {
+            throw e;
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
+            logger.debug("Input could not be decrypted: {}", e.getMessage());
+            return -1;
+        } catch (GeneralSecurityException e) {
+            logger.error("Unexpected error when decrypting.", e);
+            decryptCipher = null;
+            return -1;
+        }
+    }
+
     /**
      * Encrypt an input buffer with the key specified in the constructor.
      *
@@ -78,14 +182,10 @@ public class TuyaCipher implements UdpConfig {
      */
     public ByteBuffer encrypt(ByteBuffer buffer) {
         try {
-            ByteBuffer result = ByteBuffer.allocate(buffer.capacity() + 16);
-            SecretKeySpec secretKey = new SecretKeySpec(key, "AES");
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            cipher.doFinal(buffer, result);
+            ByteBuffer result = ByteBuffer.allocate(getEncryptedSize(buffer.remaining()));
+            encrypt(buffer, result);
             return result;
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException
-                | BadPaddingException | ShortBufferException e1) {
+        } catch (ShortBufferException e1) {
             // Should not happen
             return null;
         }
@@ -98,15 +198,12 @@ public class TuyaCipher implements UdpConfig {
      * @return the encrypted output.
      * @throws UnsupportedEncodingException
      */
-    public byte[] encrypt(byte[] buffer) {
+    public synchronized byte[] encrypt(byte[] buffer) {
         try {
-            SecretKeySpec secretKey = new SecretKeySpec(key, "AES");
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            return cipher.doFinal(buffer);
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | IllegalBlockSizeException
-                | BadPaddingException e1) {
+            return encryptCipher().doFinal(buffer);
+        } catch (GeneralSecurityException e1) {
             // Should not happen
+            encryptCipher = null;
             return null;
         }
     }
@@ -115,74 +212,37 @@ public class TuyaCipher implements UdpConfig {
      * Decrypt an input buffer with the key specified in the constructor.
      *
      * @param buffer the input buffer.
-     * @return the encrypted output.
-     * @throws IllegalBlockSizeException
-     * @throws UnsupportedEncodingException
+     * @return the decrypted output, or null if the input could not be decrypted with this key.
      */
     public ByteBuffer decrypt(ByteBuffer buffer) {
         try {
-            ByteBuffer result = ByteBuffer.allocate(buffer.capacity());
-            SecretKeySpec secretKey = new SecretKeySpec(key, "AES");
-            Cipher cipher;
-            cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            cipher.doFinal(buffer, result);
-            return result;
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException | ShortBufferException
-                | IllegalBlockSizeException | BadPaddingException e1) {
-            // logger.error("Unexpected error when decrypting.", e1);
+            ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+            return decrypt(buffer, result) < 0 ? null : result;
+        } catch (ShortBufferException e1) {
+            // Should not happen, the output is never larger than the input.
             return null;
         }
-
     }
 
     /**
-     * Decrypt an input buffer with the key specified in the constructor.
+     * Decrypt an input buffer with the key specified in the constructor. The caller selects the right TuyaCipher for
+     * the message up front (see {@link #getUdpCipher()}), there is no fallback to another key.
      *
      * @param buffer the input buffer.
-     * @return the encrypted output.
-     * @throws IllegalBlockSizeException
-     * @throws UnsupportedEncodingException
+     * @return the decrypted output, or null if the input could not be decrypted with this key.
+     * @throws IllegalBlockSizeException when the input is not a multiple of the block size.
      */
-    public byte[] decrypt(byte[] buffer) throws IllegalBlockSizeException {
-        byte[] input = null;
+    public synchronized byte[] decrypt(byte[] buffer) throws IllegalBlockSizeException {
         try {
-            SecretKeySpec secretKey = new SecretKeySpec(key, "AES");
-            Cipher cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            /**
-             * boolean base64 = false;
-             * if (false) {
-             * if (this.version.equals("3.3")) {
-             * // Remove 3.3 header
-             * // input = Arrays.copyOfRange(buffer, 15, buffer.length);
-             * input = Arrays.copyOfRange(buffer, 19, buffer.length - 1);
-             * } else {
-             * // Data has version number and is encoded in base64
-             * // Remove prefix of version number and MD5 hash
-             * input = Arrays.copyOfRange(buffer, 19, buffer.length);
-             * base64 = true;
-             * }
-             * } else {
-             * input = buffer;
-             * }
-             */
-            input = buffer;
-            return cipher.doFinal(input);
-        } catch (BadPaddingException e0) {
-            SecretKeySpec secretKey = new SecretKeySpec(udpKey, "AES");
-            Cipher cipher;
-            try {
-                cipher = Cipher.getInstance("AES/ECB/PKCS5PADDING");
-                cipher.init(Cipher.DECRYPT_MODE, secretKey);
-                return cipher.doFinal(input);
-            } catch (NoSuchPaddingException | NoSuchAlgorithmException | InvalidKeyException | IllegalBlockSizeException
-                    | BadPaddingException e) {
-                logger.error("Error decrypting packet.", e);
-                return null;
-            }
-        } catch (InvalidKeyException | NoSuchAlgorithmException | NoSuchPaddingException e1) {
-            logger.error("Unexpected error when decrypting.", e1);
+            return decryptCipher().doFinal(buffer);
+        } catch (IllegalBlockSizeException e) {
+            throw e;
+        } catch (BadPaddingException e) {
+            logger.debug("Input could not be decrypted: {}", e.getMessage());
+            return null;
+        } catch (GeneralSecurityException e) {
+            logger.error("Unexpected error when decrypting.", e);
+            decryptCipher = null;
             return null;
         }
     }